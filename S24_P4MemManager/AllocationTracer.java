@@ -0,0 +1,174 @@
+/**
+ * This class keeps a sample of the memory manager's allocation work.
+ * One in every sampleEvery inserts and removes that reach the free
+ * block list is recorded in a ring buffer: the record length, the
+ * block order, the splits or merges it caused and the resizes it
+ * needed. Once the buffer is full the oldest samples are replaced.
+ *
+ * Only sampled operations take the tracer's lock. Each thread counts
+ * its own operations without locking, so every thread records
+ * exactly one in sampleEvery of its operations.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class AllocationTracer {
+
+    // Kinds of samples
+    public static final int INSERT = 0;
+    public static final int REMOVE = 1;
+
+    // Number of orders in the histogram
+    private static final int ORDERS = 64;
+
+    // Record one in every sampleMask + 1 operations
+    private int sampleMask;
+
+    // Operations seen by each thread, sampled or not
+    private ThreadLocal<int[]> ticks = new ThreadLocal<int[]>();
+
+    // Samples written so far, the next goes at written % size
+    private long written;
+
+    // The ring buffer, one slot per sample
+    private int[] kinds;
+    private int[] sizes;
+    private int[] orders;
+    private int[] work;
+    private int[] resizes;
+
+    /**
+     * Constructor for AllocationTracer
+     *
+     * @param size
+     *            The number of samples kept
+     * @param sampleEvery
+     *            Record one in this many operations, rounded up to a
+     *            power of two
+     */
+    public AllocationTracer(int size, int sampleEvery) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1,
+            sampleEvery) - 1);
+        sampleMask = (1 << shift) - 1;
+
+        kinds = new int[size];
+        sizes = new int[size];
+        orders = new int[size];
+        work = new int[size];
+        resizes = new int[size];
+    }
+
+
+    /**
+     * Return true if the calling thread's next operation should be
+     * recorded
+     *
+     * @return true to record it
+     */
+    public boolean sample() {
+        int[] count = ticks.get();
+        if (count == null) {
+            count = new int[1];
+            ticks.set(count);
+        }
+        return (count[0]++ & sampleMask) == 0;
+    }
+
+
+    /**
+     * Record one operation
+     *
+     * @param kind
+     *            INSERT or REMOVE
+     * @param size
+     *            The record length
+     * @param order
+     *            The block order in bytes, 2^order is the block size
+     * @param steps
+     *            Splits for an insert, merges for a remove
+     * @param grew
+     *            The resizes the operation needed
+     */
+    public synchronized void record(int kind, int size, int order,
+        int steps, int grew) {
+        int slot = (int)(written % kinds.length);
+        kinds[slot] = kind;
+        sizes[slot] = size;
+        orders[slot] = order;
+        work[slot] = steps;
+        resizes[slot] = grew;
+        written++;
+    }
+
+
+    /**
+     * Return the number of samples recorded, including replaced ones
+     *
+     * @return samples recorded
+     */
+    public synchronized long getRecorded() {
+        return written;
+    }
+
+
+    /**
+     * Return the number of samples still in the buffer
+     *
+     * @return samples kept
+     */
+    public synchronized int getKept() {
+        return (int)Math.min(written, kinds.length);
+    }
+
+
+    /**
+     * Print a histogram of the kept samples by block size
+     * Each line is the block size, then inserts, splits, removes,
+     * merges, resizes and the largest record length
+     */
+    public synchronized void print() {
+        int kept = getKept();
+        String out;
+        out = String.format("Allocation trace: %d of %d samples", kept,
+            written);
+        System.out.println(out);
+        if (kept == 0) {
+            return;
+        }
+
+        int[] inserts = new int[ORDERS];
+        int[] removes = new int[ORDERS];
+        long[] splits = new long[ORDERS];
+        long[] merges = new long[ORDERS];
+        int[] grew = new int[ORDERS];
+        int[] largest = new int[ORDERS];
+
+        for (int i = 0; i < kept; i++) {
+            int k = orders[i];
+            if (kinds[i] == INSERT) {
+                inserts[k]++;
+                splits[k] += work[i];
+                grew[k] += resizes[i];
+            }
+            else {
+                removes[k]++;
+                merges[k] += work[i];
+            }
+            largest[k] = Math.max(largest[k], sizes[i]);
+        }
+
+        System.out.println("block: inserts splits removes merges resizes "
+            + "largest");
+        for (int k = 0; k < ORDERS; k++) {
+            if (inserts[k] + removes[k] == 0) {
+                continue;
+            }
+
+            out = String.format("%d: %d %d %d %d %d %d", 1L << k, inserts[k],
+                splits[k], removes[k], merges[k], grew[k], largest[k]);
+            System.out.println(out);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+import student.TestCase;
+
+/**
+ * Test the methods of the AllocationTracer class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class AllocationTracerTest extends TestCase {
+
+    private AllocationTracer tracer;
+
+    /**
+     * Set up the test object
+     */
+    public void setUp() {
+        tracer = new AllocationTracer(4, 1);
+    }
+
+
+    /**
+     * Test picking one in every few operations
+     */
+    public void testSample() {
+        assertTrue(tracer.sample());
+        assertTrue(tracer.sample());
+
+        // Three rounds up to four
+        tracer = new AllocationTracer(4, 3);
+        int sampled = 0;
+        for (int i = 0; i < 16; i++) {
+            if (tracer.sample()) {
+                sampled++;
+            }
+        }
+        assertEquals(sampled, 4);
+    }
+
+
+    /**
+     * Test each thread samples its own operations exactly
+     *
+     * @throws InterruptedException
+     */
+    public void testSamplePerThread() throws InterruptedException {
+        tracer = new AllocationTracer(4, 4);
+        int threadCount = 4;
+        int[] sampled = new int[threadCount];
+        Thread[] threads = new Thread[threadCount];
+
+        for (int t = 0; t < threadCount; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    if (tracer.sample()) {
+                        sampled[id]++;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int count : sampled) {
+            assertEquals(count, 2500);
+        }
+    }
+
+
+    /**
+     * Test the oldest samples are replaced when the buffer is full
+     */
+    public void testRing() {
+        for (int i = 0; i < 6; i++) {
+            tracer.record(AllocationTracer.INSERT, 100, 7, i, 0);
+        }
+        assertEquals(tracer.getRecorded(), 6L);
+        assertEquals(tracer.getKept(), 4);
+
+        // Splits 2 + 3 + 4 + 5 are left
+        systemOut().clearHistory();
+        tracer.print();
+        String actual = systemOut().getHistory();
+        String expected = "Allocation trace: 4 of 6 samples\n"
+            + "block: inserts splits removes merges resizes largest\n"
+            + "128: 4 14 0 0 0 100\n";
+        assertFuzzyEquals(actual, expected);
+    }
+
+
+    /**
+     * Test the histogram separates sizes and kinds
+     */
+    public void testPrint() {
+        systemOut().clearHistory();
+        tracer.print();
+        assertFuzzyEquals(systemOut().getHistory(),
+            "Allocation trace: 0 of 0 samples\n");
+
+        tracer.record(AllocationTracer.INSERT, 20, 5, 1, 1);
+        tracer.record(AllocationTracer.REMOVE, 30, 5, 3, 0);
+        tracer.record(AllocationTracer.REMOVE, 5000, 13, 0, 0);
+
+        systemOut().clearHistory();
+        tracer.print();
+        String actual = systemOut().getHistory();
+        String expected = "Allocation trace: 3 of 3 samples\n"
+            + "block: inserts splits removes merges resizes largest\n"
+            + "32: 1 1 1 3 1 30\n" + "8192: 0 0 1 0 0 5000\n";
+        assertFuzzyEquals(actual, expected);
+    }
+
+}
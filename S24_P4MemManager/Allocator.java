@@ -0,0 +1,159 @@
+import java.nio.ByteBuffer;
+
+/**
+ * This interface represents a strategy for placing records in a pool.
+ * SeminarDB works through it, so the buddy memory manager and other
+ * allocators can be swapped without changing the database.
+ *
+ * Features only some allocators have are default methods that do
+ * nothing or refuse.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public interface Allocator {
+
+    /**
+     * Insert the space array into memory
+     *
+     * @param space
+     *            The byte array to enter
+     * @param size
+     *            The size of the byte array
+     * @return a Handle representing where it was placed in memory
+     */
+    Handle insert(byte[] space, int size);
+
+
+    /**
+     * Get a record from memory and put it into space
+     *
+     * @param space
+     *            The array to place record into
+     * @param handle
+     *            The handle pointing to the record in memory
+     * @param size
+     *            The size of the space array
+     * @return true if successful
+     */
+    boolean get(byte[] space, Handle handle, int size);
+
+
+    /**
+     * Return a read-only view of a record's bytes in the pool
+     *
+     * @param handle
+     *            The handle of the record
+     * @return a read-only buffer holding the record
+     */
+    ByteBuffer view(Handle handle);
+
+
+    /**
+     * Frees the record of a handle
+     *
+     * @param handle
+     *            The handle representing the record
+     */
+    void remove(Handle handle);
+
+
+    /**
+     * Return the number of free bytes
+     *
+     * @return free bytes
+     */
+    long numFreeBytes();
+
+
+    /**
+     * Return the capacity
+     *
+     * @return capacity in bytes
+     */
+    long getCapacity();
+
+
+    /**
+     * Print the free blocks to standard out
+     */
+    void print();
+
+
+    /**
+     * Free every record at once
+     * Handles given out before must not be used again
+     */
+    void clear();
+
+
+    /**
+     * Mark the space of an existing record as used
+     * Needed to reopen a pool saved in a file. Allocators that cannot
+     * reserve space return false.
+     *
+     * @param handle
+     *            The handle of the record
+     * @return true if the space was free and is now reserved
+     */
+    default boolean reserve(Handle handle) {
+        return false;
+    }
+
+
+    /**
+     * Move a record lower in the pool if the allocator can
+     *
+     * @param handle
+     *            The handle of the record
+     * @return the record's new handle, or handle if it did not move
+     */
+    default Handle relocate(Handle handle) {
+        return handle;
+    }
+
+
+    /**
+     * Copy a record lower in the pool if the allocator can
+     * The old record stays in use until it is removed
+     *
+     * @param handle
+     *            The handle of the record
+     * @return the copy's handle, or handle if it was not copied
+     */
+    default Handle copyLower(Handle handle) {
+        return handle;
+    }
+
+
+    /**
+     * Replace a record with new bytes
+     * By default the record is inserted again and the old one freed
+     *
+     * @param handle
+     *            The handle of the record
+     * @param space
+     *            The new bytes of the record
+     * @param size
+     *            The new length of the record
+     * @return the record's new handle
+     */
+    default Handle realloc(Handle handle, byte[] space, int size) {
+        Handle moved = insert(space, size);
+        remove(handle);
+        return moved;
+    }
+
+
+    /**
+     * Pack small records into slabs if the allocator can
+     *
+     * @param slabOrder
+     *            2^slabOrder is the size of each slab
+     */
+    default void enableSlabs(int slabOrder) {
+        // Nothing to do
+    }
+
+}
@@ -0,0 +1,329 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class represents a memory pool stored in ByteBuffers.
+ * The buffers are either on the heap or off heap (direct).
+ * A direct pool keeps the records out of the Java heap, so a large
+ * pool does not need a large heap and is not scanned by the GC.
+ *
+ * The pool is a list of segments. Segment 0 is the initial capacity
+ * and every grow appends one segment as large as the whole pool, so
+ * old bytes are never copied. Segment i (i > 0) starts at address
+ * initial * 2^(i-1), which makes finding a segment one bit count.
+ *
+ * A ByteBuffer holds less than 2 GB, so segments stop doubling at
+ * 1 GB. Past that the pool grows by appending 1 GB segments, found
+ * by a shift, and the pool may be far larger than 2 GB.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class BufferPool implements MemoryPool {
+
+    // The segments of the pool, lowest addresses first
+    // Replaced, never changed in place, so readers need no lock
+    private volatile ByteBuffer[] segments;
+
+    // Largest segment a ByteBuffer can hold, as a power of two
+    private static final int MAX_ORDER = 30;
+
+    // 2^base = capacity of segment 0
+    private int base;
+
+    // 2^maxOrder = capacity of the largest segments
+    private int maxOrder;
+
+    // Total capacity of all segments
+    private long capacity;
+
+    // True if the segments are off heap
+    private boolean direct;
+
+    /**
+     * Constructor for BufferPool
+     *
+     * @param capacity
+     *            The initial capacity must be a power of two
+     * @param direct
+     *            True to keep the pool off heap
+     */
+    public BufferPool(int capacity, boolean direct) {
+        this(capacity, direct, MAX_ORDER);
+    }
+
+
+    /**
+     * Constructor for BufferPool with a smaller largest segment
+     *
+     * @param capacity
+     *            The initial capacity must be a power of two
+     * @param direct
+     *            True to keep the pool off heap
+     * @param maxOrder
+     *            2^maxOrder is the most bytes in one segment
+     */
+    public BufferPool(int capacity, boolean direct, int maxOrder) {
+        this.direct = direct;
+        this.capacity = capacity;
+        this.base = Integer.numberOfTrailingZeros(capacity);
+        this.maxOrder = Math.max(base, Math.min(maxOrder, MAX_ORDER));
+
+        segments = new ByteBuffer[1];
+        segments[0] = allocate(capacity);
+    }
+
+
+    /**
+     * Copy bytes from src into the pool
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param src
+     *            The array to copy from
+     * @param length
+     *            The number of bytes to copy
+     */
+    @Override
+    public void write(long address, byte[] src, int length) {
+        int done = 0;
+
+        // A record only crosses segments if it is bigger than segment 0
+        // or lies across 1 GB segments
+        while (done < length) {
+            int index = segmentOf(address + done);
+            ByteBuffer segment = segments[index];
+            int offset = (int)(address + done - startOf(index));
+            int chunk = Math.min(length - done, segment.capacity() - offset);
+
+            if (segment.hasArray()) {
+                System.arraycopy(src, done, segment.array(), segment
+                    .arrayOffset() + offset, chunk);
+            }
+            else {
+                // Absolute puts leave the buffer position alone
+                for (int i = 0; i < chunk; i++) {
+                    segment.put(offset + i, src[done + i]);
+                }
+            }
+            done += chunk;
+        }
+    }
+
+
+    /**
+     * Copy bytes from the pool into dst
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param dst
+     *            The array to copy into
+     * @param length
+     *            The number of bytes to copy
+     */
+    @Override
+    public void read(long address, byte[] dst, int length) {
+        int done = 0;
+
+        while (done < length) {
+            int index = segmentOf(address + done);
+            ByteBuffer segment = segments[index];
+            int offset = (int)(address + done - startOf(index));
+            int chunk = Math.min(length - done, segment.capacity() - offset);
+
+            if (segment.hasArray()) {
+                System.arraycopy(segment.array(), segment.arrayOffset()
+                    + offset, dst, done, chunk);
+            }
+            else {
+                for (int i = 0; i < chunk; i++) {
+                    dst[done + i] = segment.get(offset + i);
+                }
+            }
+            done += chunk;
+        }
+    }
+
+
+    /**
+     * Read a four byte int from the pool
+     * Segments start at multiples of four, so an int never crosses one
+     *
+     * @param address
+     *            The byte address, a multiple of four
+     * @return the int
+     */
+    @Override
+    public int getInt(long address) {
+        int index = segmentOf(address);
+        return segments[index].getInt((int)(address - startOf(index)));
+    }
+
+
+    /**
+     * Write a four byte int into the pool
+     *
+     * @param address
+     *            The byte address, a multiple of four
+     * @param value
+     *            The int to write
+     */
+    @Override
+    public void putInt(long address, int value) {
+        int index = segmentOf(address);
+        segments[index].putInt((int)(address - startOf(index)), value);
+    }
+
+
+    /**
+     * Return a read-only view of bytes in the pool
+     * A record inside one segment is a slice of it, nothing is copied
+     * A record across segments is copied, which only happens for
+     * records bigger than segment 0
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param length
+     *            The number of bytes to view
+     * @return a read-only buffer from position 0 to length
+     */
+    @Override
+    public ByteBuffer view(long address, int length) {
+        int index = segmentOf(address);
+        ByteBuffer segment = segments[index];
+        int offset = (int)(address - startOf(index));
+
+        if (offset + length > segment.capacity()) {
+            byte[] copy = new byte[length];
+            read(address, copy, length);
+            return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+        }
+
+        // Work on a duplicate so the shared position is left alone
+        ByteBuffer view = segment.asReadOnlyBuffer();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+
+    /**
+     * Grow the pool by appending segments
+     * Each new segment is as large as the pool before it, up to the
+     * largest segment size
+     *
+     * @param newCapacity
+     *            The new capacity, a power of two times the old one
+     */
+    @Override
+    public void grow(long newCapacity) {
+        while (capacity < newCapacity) {
+            int size = (int)Math.min(capacity, 1L << maxOrder);
+            ByteBuffer[] grown = Arrays.copyOf(segments, segments.length
+                + 1);
+            grown[grown.length - 1] = allocate(size);
+            segments = grown;
+            capacity += size;
+        }
+    }
+
+
+    /**
+     * Shrink the pool by dropping segments from the end
+     * Never goes below the initial segment
+     *
+     * @param newCapacity
+     *            The new capacity, the old one over a power of two
+     */
+    @Override
+    public void shrink(long newCapacity) {
+        while (capacity > newCapacity && segments.length > 1) {
+            capacity -= segments[segments.length - 1].capacity();
+            segments = Arrays.copyOf(segments, segments.length - 1);
+        }
+    }
+
+
+    /**
+     * Return the capacity
+     *
+     * @return capacity in bytes
+     */
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Return the number of segments
+     *
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+
+    /**
+     * Return true if the pool is off heap
+     *
+     * @return true if direct
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+
+    /**
+     * Return the index of the segment holding an address
+     *
+     * @param address
+     *            The byte address
+     * @return the segment index
+     */
+    private int segmentOf(long address) {
+        int highBit = 63 - Long.numberOfLeadingZeros(address);
+        if (highBit < maxOrder) {
+            return Math.max(0, highBit - base + 1);
+        }
+
+        // Past the doubling segments, all are 2^maxOrder bytes
+        return maxOrder - base + (int)(address >>> maxOrder);
+    }
+
+
+    /**
+     * Return the first address of a segment
+     *
+     * @param index
+     *            The segment index
+     * @return the starting address
+     */
+    private long startOf(int index) {
+        if (index == 0) {
+            return 0;
+        }
+        if (index <= maxOrder - base + 1) {
+            return 1L << (base + index - 1);
+        }
+        return (long)(index - maxOrder + base) << maxOrder;
+    }
+
+
+    /**
+     * Allocate a segment of the right kind
+     *
+     * @param size
+     *            The size in bytes
+     * @return the new buffer
+     */
+    private ByteBuffer allocate(int size) {
+        if (direct) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        return ByteBuffer.allocate(size);
+    }
+
+}
@@ -0,0 +1,262 @@
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import student.TestCase;
+
+/**
+ * Test the methods of the BufferPool class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class BufferPoolTest extends TestCase {
+
+    private BufferPool heap;
+
+    private BufferPool direct;
+
+    /**
+     * Set up the test objects
+     */
+    public void setUp() {
+        heap = new BufferPool(16, false);
+        direct = new BufferPool(16, true);
+    }
+
+
+    /**
+     * Test the kind and capacity of each pool
+     */
+    public void testKind() {
+        assertFalse(heap.isDirect());
+        assertTrue(direct.isDirect());
+        assertEquals(heap.getCapacity(), 16);
+        assertEquals(direct.getCapacity(), 16);
+    }
+
+
+    /**
+     * Test writing and reading back bytes
+     */
+    public void testWriteRead() {
+        byte[] src = { 1, 2, 3, 4, 5 };
+
+        heap.write(11, src, 5);
+        direct.write(11, src, 5);
+
+        byte[] dst = new byte[5];
+        heap.read(11, dst, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(dst[i], src[i]);
+        }
+
+        dst = new byte[5];
+        direct.read(11, dst, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(dst[i], src[i]);
+        }
+    }
+
+
+    /**
+     * Test growing keeps the old contents
+     */
+    public void testGrow() {
+        byte[] src = { 9, 8, 7 };
+        heap.write(13, src, 3);
+        direct.write(13, src, 3);
+
+        heap.grow(32);
+        direct.grow(32);
+        assertEquals(heap.getCapacity(), 32);
+        assertEquals(direct.getCapacity(), 32);
+
+        byte[] dst = new byte[3];
+        heap.read(13, dst, 3);
+        assertEquals(dst[2], 7);
+
+        direct.read(13, dst, 3);
+        assertEquals(dst[0], 9);
+
+        // New half is usable
+        direct.write(29, src, 3);
+        direct.read(29, dst, 3);
+        assertEquals(dst[1], 8);
+    }
+
+
+    /**
+     * Test growing appends segments instead of copying
+     */
+    public void testSegments() {
+        assertEquals(heap.getSegmentCount(), 1);
+
+        heap.grow(64);
+        direct.grow(64);
+        assertEquals(heap.getSegmentCount(), 3);
+        assertEquals(direct.getSegmentCount(), 3);
+        assertEquals(heap.getCapacity(), 64);
+    }
+
+
+    /**
+     * Test a record crossing every segment boundary
+     */
+    public void testAcrossSegments() {
+        heap.grow(64);
+        direct.grow(64);
+
+        byte[] src = new byte[60];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte)(i + 1);
+        }
+        heap.write(2, src, 60);
+        direct.write(2, src, 60);
+
+        byte[] dst = new byte[60];
+        heap.read(2, dst, 60);
+        for (int i = 0; i < dst.length; i++) {
+            assertEquals(dst[i], (byte)(i + 1));
+        }
+
+        dst = new byte[60];
+        direct.read(2, dst, 60);
+        for (int i = 0; i < dst.length; i++) {
+            assertEquals(dst[i], (byte)(i + 1));
+        }
+    }
+
+
+    /**
+     * Test shrinking drops segments but keeps segment 0
+     */
+    public void testShrink() {
+        byte[] src = { 5, 6 };
+        heap.write(0, src, 2);
+        heap.grow(64);
+
+        heap.shrink(32);
+        assertEquals(heap.getCapacity(), 32);
+        assertEquals(heap.getSegmentCount(), 2);
+
+        heap.shrink(8);
+        assertEquals(heap.getCapacity(), 16);
+        assertEquals(heap.getSegmentCount(), 1);
+
+        byte[] dst = new byte[2];
+        heap.read(0, dst, 2);
+        assertEquals(dst[1], 6);
+    }
+
+
+    /**
+     * Test views share the pool's bytes and cannot write
+     */
+    public void testView() {
+        byte[] src = { 7, 8, 9 };
+        heap.write(4, src, 3);
+        direct.write(4, src, 3);
+
+        ByteBuffer view = heap.view(4, 3);
+        assertTrue(view.isReadOnly());
+        assertEquals(view.remaining(), 3);
+        assertEquals(view.get(0), 7);
+
+        // Written after the view was taken, still seen
+        src[0] = 1;
+        heap.write(4, src, 1);
+        assertEquals(view.get(0), 1);
+
+        view = direct.view(4, 3);
+        assertTrue(view.isDirect());
+        assertEquals(view.get(2), 9);
+
+        Exception thrown = null;
+        try {
+            view.put(0, (byte)0);
+        }
+        catch (ReadOnlyBufferException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+    }
+
+
+    /**
+     * Test a view of a record crossing segments
+     */
+    public void testViewAcrossSegments() {
+        direct.grow(64);
+
+        byte[] src = new byte[40];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte)(i + 1);
+        }
+        direct.write(8, src, 40);
+
+        ByteBuffer view = direct.view(8, 40);
+        assertTrue(view.isReadOnly());
+        assertEquals(view.remaining(), 40);
+        for (int i = 0; i < 40; i++) {
+            assertEquals(view.get(), (byte)(i + 1));
+        }
+
+        // Inside the last segment is a slice again
+        view = direct.view(40, 8);
+        assertTrue(view.isDirect());
+        assertEquals(view.get(0), 33);
+    }
+
+
+    /**
+     * Test ints are read and written in every segment
+     */
+    public void testInts() {
+        direct.grow(64);
+
+        direct.putInt(12, 7);
+        direct.putInt(16, -1);
+        direct.putInt(60, 123456789);
+        assertEquals(direct.getInt(12), 7);
+        assertEquals(direct.getInt(16), -1);
+        assertEquals(direct.getInt(60), 123456789);
+
+        byte[] dst = new byte[4];
+        direct.read(12, dst, 4);
+        assertEquals(dst[3], 7);
+    }
+
+
+    /**
+     * Test segments stop doubling at the largest segment size
+     */
+    public void testCappedSegments() {
+        BufferPool capped = new BufferPool(16, true, 5);
+
+        // 16, 16, then 32 byte segments
+        capped.grow(128);
+        assertEquals(capped.getSegmentCount(), 5);
+        assertEquals(capped.getCapacity(), 128L);
+
+        byte[] src = new byte[60];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte)(i + 1);
+        }
+        capped.write(50, src, 60);
+        capped.putInt(112, 77);
+
+        byte[] dst = new byte[60];
+        capped.read(50, dst, 60);
+        for (int i = 0; i < dst.length; i++) {
+            assertEquals(dst[i], src[i]);
+        }
+        assertEquals(capped.getInt(112), 77);
+        assertEquals(capped.view(64, 8).get(0), 15);
+
+        // Dropping the last segments gives back 32 bytes each
+        capped.shrink(64);
+        assertEquals(capped.getSegmentCount(), 3);
+        assertEquals(capped.getCapacity(), 64L);
+    }
+
+}
@@ -0,0 +1,79 @@
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This class reads a ByteBuffer as an InputStream.
+ * It lets a record be deserialized straight from a view of the
+ * memory pool without copying it into an array first.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    // The bytes left to read are position to limit
+    private ByteBuffer buffer;
+
+    /**
+     * Constructor for ByteBufferInputStream
+     *
+     * @param buffer
+     *            The buffer to read, from its position to its limit
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    /**
+     * Read one byte
+     *
+     * @return the byte from 0 to 255, or -1 at the end
+     */
+    @Override
+    public int read() {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+
+    /**
+     * Read up to len bytes into b
+     *
+     * @param b
+     *            The array to read into
+     * @param off
+     *            The first index of b to fill
+     * @param len
+     *            The most bytes to read
+     * @return the number of bytes read, or -1 at the end
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+
+    /**
+     * Return the number of bytes left
+     *
+     * @return the bytes left
+     */
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+}
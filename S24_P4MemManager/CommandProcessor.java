@@ -3,7 +3,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Scanner;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Command file parser
@@ -37,15 +39,6 @@ public class CommandProcessor {
      */
     public boolean readCmdFile(File theFile) throws IOException {
         int sID;
-        String stitle;
-        String sdate;
-        int slength;
-        int sx;
-        int sy;
-        int scost;
-        String skeystring;
-        String[] skeywords;
-        String sdescription;
         String ptype;
         int cnt;
         try (Scanner sc = new Scanner(theFile)) { // Create our new scanner
@@ -53,33 +46,22 @@ public class CommandProcessor {
                 String cmd = sc.next(); // Read the next term
                 switch (cmd) {
                     case "insert":
-                        sID = sc.nextInt();
-                        sc.nextLine(); // Flush the end-of-line
-                        stitle = sc.nextLine().trim();
-                        sdate = sc.next().trim();
-                        slength = sc.nextInt();
-                        sx = sc.nextInt();
-                        sy = sc.nextInt();
-                        scost = sc.nextInt();
-                        sc.nextLine(); // Flush the end-of-line
-                        skeystring = sc.nextLine().trim();
-                        List<String> temp = new ArrayList<String>();
-                        // Create our new scanner
-                        try (Scanner keysc = new Scanner(skeystring)) {
-                            while (keysc.hasNext()) {
-                                String dum = keysc.next().trim();
-                                temp.add(dum);
-                            }
+                    case "update": // Same fields as an insert
+                        Seminar sem = readSeminar(sc);
+                        if (cmd.equals("insert")) {
+                            myWorld.insert(sem);
+                        }
+                        else {
+                            myWorld.update(sem);
                         }
-                        skeywords = temp.toArray(new String[0]);
-                        sdescription = sc.nextLine().trim();
-                        myWorld.insert(sID, stitle, sdate, slength, sx, sy,
-                            scost, skeywords, sdescription);
                         break;
                     case "delete":// Found a delete command
                         sID = sc.nextInt();
                         myWorld.delete(sID);
                         break;
+                    case "clear": // Found a clear command
+                        myWorld.clear();
+                        break;
                     case "search": // Found a search command
                         sID = sc.nextInt();
                         myWorld.search(sID);
@@ -112,4 +94,158 @@ public class CommandProcessor {
         }
         return true;
     }
+
+
+    /**
+     * Read the fields of an insert or update after the command word
+     *
+     * @param sc
+     *            The scanner on the command file
+     * @return the seminar described
+     */
+    private static Seminar readSeminar(Scanner sc) {
+        int sID = sc.nextInt();
+        sc.nextLine(); // Flush the end-of-line
+        String stitle = sc.nextLine().trim();
+        String sdate = sc.next().trim();
+        int slength = sc.nextInt();
+        int sx = sc.nextInt();
+        int sy = sc.nextInt();
+        int scost = sc.nextInt();
+        sc.nextLine(); // Flush the end-of-line
+        String skeystring = sc.nextLine().trim();
+        List<String> temp = new ArrayList<String>();
+        // Create our new scanner
+        try (Scanner keysc = new Scanner(skeystring)) {
+            while (keysc.hasNext()) {
+                String dum = keysc.next().trim();
+                temp.add(dum);
+            }
+        }
+        String[] skeywords = temp.toArray(new String[0]);
+        String sdescription = sc.nextLine().trim();
+        return new Seminar(sID, stitle, sdate, slength, (short)sx,
+            (short)sy, scost, skeywords, sdescription);
+    }
+
+
+    /**
+     * Return the lengths of the records live when a command file's
+     * records take the most space
+     * Only the first limit inserts and updates are read. Deletes and
+     * clears are followed, so records deleted before the peak do not
+     * count. A bad record ends the sample, what came before is kept.
+     *
+     * @param theFile
+     *            The file to sample
+     * @param limit
+     *            The most inserts and updates to read
+     * @return the serialized length of each record live at the peak
+     * @throws IOException
+     */
+    public static int[] sampleSizes(File theFile, int limit)
+        throws IOException {
+        // Each change as its command's first letter, an ID and a length
+        List<int[]> changes = new ArrayList<int[]>();
+        int read = 0;
+        try (Scanner sc = new Scanner(theFile)) {
+            while (sc.hasNext() && read < limit) {
+                String cmd = sc.next();
+                if (cmd.equals("insert") || cmd.equals("update")) {
+                    Seminar sem = readSeminar(sc);
+                    changes.add(new int[] { cmd.charAt(0), sem.getID(),
+                        lengthOf(sem) });
+                    read++;
+                }
+                else if (cmd.equals("delete")) {
+                    changes.add(new int[] { 'd', sc.nextInt(), 0 });
+                }
+                else if (cmd.equals("clear")) {
+                    changes.add(new int[] { 'c', 0, 0 });
+                }
+            }
+        }
+        catch (NoSuchElementException e) {
+            // Keep what was read before the bad record
+        }
+
+        // Find the change after which the most bytes are live
+        HashMap<Integer, Integer> live = new HashMap<Integer, Integer>();
+        long bytes = 0;
+        long most = 0;
+        int peak = 0;
+        for (int i = 0; i < changes.size(); i++) {
+            bytes += apply(live, changes.get(i), bytes);
+            if (bytes > most) {
+                most = bytes;
+                peak = i + 1;
+            }
+        }
+
+        // Replay up to the peak
+        live.clear();
+        for (int i = 0; i < peak; i++) {
+            apply(live, changes.get(i), 0);
+        }
+
+        int[] out = new int[live.size()];
+        int i = 0;
+        for (int length : live.values()) {
+            out[i++] = length;
+        }
+        return out;
+    }
+
+
+    /**
+     * Return the serialized length of a seminar
+     *
+     * @param sem
+     *            The seminar
+     * @return the length in bytes
+     * @throws IOException
+     *             if it cannot be serialized
+     */
+    private static int lengthOf(Seminar sem) throws IOException {
+        try {
+            return sem.serialize().length;
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+
+    /**
+     * Apply one sampled change to the live records
+     *
+     * @param live
+     *            The length of each live record by ID
+     * @param change
+     *            The command, ID and length, see sampleSizes
+     * @param bytes
+     *            The bytes live before the change
+     * @return how much the live bytes changed
+     */
+    private static long apply(HashMap<Integer, Integer> live, int[] change,
+        long bytes) {
+        Integer old;
+        switch (change[0]) {
+            case 'i': // A duplicate ID is not inserted
+                old = live.putIfAbsent(change[1], change[2]);
+                return old == null ? change[2] : 0;
+            case 'u': // A missing ID is not updated
+                old = live.replace(change[1], change[2]);
+                return old == null ? 0 : change[2] - old;
+            case 'd':
+                old = live.remove(change[1]);
+                return old == null ? 0 : -old;
+            default: // clear
+                live.clear();
+                return -bytes;
+        }
+    }
 }
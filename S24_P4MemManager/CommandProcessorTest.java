@@ -0,0 +1,167 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import student.TestCase;
+
+/**
+ * Test the methods of the CommandProcessor class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class CommandProcessorTest extends TestCase {
+
+    private File file;
+
+    /**
+     * Set up a fresh file for each test
+     *
+     * @throws IOException
+     */
+    public void setUp() throws IOException {
+        file = File.createTempFile("commands", ".txt");
+    }
+
+
+    /**
+     * Remove the file after each test
+     */
+    public void tearDown() {
+        file.delete();
+    }
+
+
+    /**
+     * Test records deleted before the peak are not sampled
+     *
+     * @throws IOException
+     */
+    public void testSampleFollowsDeletes() throws IOException {
+        write(command("insert", 1, "a") + command("insert", 2, "bb")
+            + "delete 1\n" + command("insert", 3, "ccc") + "delete 3\n"
+            + "delete 2\n");
+
+        int[] sizes = CommandProcessor.sampleSizes(file, 100);
+        assertEquals(sizes.length, 2);
+        assertEquals(sizes[0] + sizes[1], length(2, "bb") + length(3,
+            "ccc"));
+    }
+
+
+    /**
+     * Test clears, duplicate inserts and missing updates
+     *
+     * @throws IOException
+     */
+    public void testSampleFollowsClears() throws IOException {
+        write(command("insert", 1, "aaaa") + command("insert", 1, "a")
+            + command("update", 2, "b") + "clear\n" + command("insert", 3,
+                "c"));
+
+        int[] sizes = CommandProcessor.sampleSizes(file, 100);
+        assertTrue(Arrays.equals(sizes, new int[] { length(1, "aaaa") }));
+    }
+
+
+    /**
+     * Test only the first inserts and updates are read
+     *
+     * @throws IOException
+     */
+    public void testSampleLimit() throws IOException {
+        write(command("insert", 1, "a") + command("insert", 2, "b")
+            + command("insert", 3, "c"));
+
+        assertEquals(CommandProcessor.sampleSizes(file, 2).length, 2);
+        assertEquals(CommandProcessor.sampleSizes(file, 0).length, 0);
+    }
+
+
+    /**
+     * Test a bad record ends the sample without printing
+     *
+     * @throws IOException
+     */
+    public void testSampleBadRecord() throws IOException {
+        write(command("insert", 1, "a") + "insert 2\nTitle\nnot a date\n");
+
+        systemOut().clearHistory();
+        systemErr().clearHistory();
+        int[] sizes = CommandProcessor.sampleSizes(file, 100);
+        assertTrue(Arrays.equals(sizes, new int[] { length(1, "a") }));
+        assertEquals(systemOut().getHistory(), "");
+        assertEquals(systemErr().getHistory(), "");
+    }
+
+
+    /**
+     * Test a missing file is reported
+     */
+    public void testSampleMissingFile() {
+        file.delete();
+
+        Exception thrown = null;
+        try {
+            CommandProcessor.sampleSizes(file, 100);
+        }
+        catch (IOException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+    }
+
+
+    /**
+     * Return the text of an insert or update command
+     *
+     * @param cmd
+     *            insert or update
+     * @param id
+     *            The seminar ID
+     * @param desc
+     *            The description
+     * @return the command's lines
+     */
+    private String command(String cmd, int id, String desc) {
+        return cmd + " " + id + "\nTitle\n0610051600 90 10 10 45\n"
+            + "HCI VT\n" + desc + "\n";
+    }
+
+
+    /**
+     * Return the serialized length of a seminar written by command
+     *
+     * @param id
+     *            The seminar ID
+     * @param desc
+     *            The description
+     * @return the length in bytes
+     */
+    private int length(int id, String desc) {
+        try {
+            return new Seminar(id, "Title", "0610051600", 90, (short)10,
+                (short)10, 45, new String[] { "HCI", "VT" }, desc)
+                    .serialize().length;
+        }
+        catch (Exception e) {
+            fail(e.toString());
+            return -1;
+        }
+    }
+
+
+    /**
+     * Replace the command file's text
+     *
+     * @param text
+     *            The new text
+     * @throws IOException
+     */
+    private void write(String text) throws IOException {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(text);
+        }
+    }
+}
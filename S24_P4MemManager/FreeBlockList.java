@@ -0,0 +1,450 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class represents the free block list used by the memory manager.
+ * Each block size (order) keeps a bitmap with one bit per possible
+ * block position. Bit i of order k is set when the block starting at
+ * address i * 2^k is free.
+ *
+ * The bits are kept in pages of 64 words, a page is only made once a
+ * block in it is freed. Above the pages are summary levels, each word
+ * has one bit per word in the level below it, set when that word is
+ * non zero. This makes push, remove and contains constant time and
+ * finds the lowest free address of an order by walking a handful of
+ * words. The summaries take 1/64 of a full bitmap, so an order whose
+ * free blocks are few or close together takes little space, and
+ * growing only copies summaries and page references.
+ *
+ * Orders may be changed by different threads at once as long as each
+ * order is changed by one thread at a time. Only the mask of non
+ * empty orders is shared between them.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class FreeBlockList {
+
+    // Words in a page of bits, one summary word covers a page
+    private static final int PAGE_WORDS = 64;
+
+    // Capacity of the memory pool being tracked
+    private int capacity;
+
+    // 2^N = capacity
+    private int n;
+
+    // pages[k][page][word], null until a block in the page is freed
+    private long[][][] pages;
+
+    // summaries[k][level][word]
+    // Level 0 holds one bit per page word, the last level is one word
+    private long[][][] summaries;
+
+    // Number of free blocks in each order
+    private int[] counts;
+
+    // Bit k is set when order k has at least one free block
+    private AtomicInteger orders = new AtomicInteger();
+
+    /**
+     * Constructor for FreeBlockList
+     * Starts with no free blocks
+     *
+     * @param capacity
+     *            The capacity of the pool, must be a power of two
+     */
+    public FreeBlockList(int capacity) {
+        this.capacity = capacity;
+        this.n = Integer.numberOfTrailingZeros(capacity);
+
+        pages = new long[this.n + 1][][];
+        summaries = new long[this.n + 1][][];
+        counts = new int[this.n + 1];
+
+        for (int k = 0; k <= this.n; k++) {
+            int words = numWords(capacity >> k);
+            pages[k] = new long[numWords(words)][];
+            summaries[k] = buildSummaries(new long[numWords(words)]);
+        }
+    }
+
+
+    /**
+     * Add a free block
+     *
+     * @param k
+     *            The order of the block
+     * @param position
+     *            The starting address of the block
+     */
+    public void push(int k, int position) {
+        int index = position >> k;
+        int word = index >>> 6;
+
+        long[] page = pages[k][word / PAGE_WORDS];
+        if (page == null) {
+            page = new long[PAGE_WORDS];
+            pages[k][word / PAGE_WORDS] = page;
+        }
+        boolean wasEmpty = page[word % PAGE_WORDS] == 0;
+        page[word % PAGE_WORDS] |= 1L << index;
+
+        // Set bits going up until a word was already non zero
+        long[][] levels = summaries[k];
+        index = word;
+        for (int level = 0; wasEmpty && level < levels.length; level++) {
+            word = index >>> 6;
+            wasEmpty = levels[level][word] == 0;
+            levels[level][word] |= 1L << index;
+            index = word;
+        }
+
+        counts[k]++;
+        if (counts[k] == 1) {
+            flip(k);
+        }
+    }
+
+
+    /**
+     * Remove a specific free block
+     * Used to unlink a buddy when merging
+     *
+     * @param k
+     *            The order of the block
+     * @param position
+     *            The starting address of the block
+     */
+    public void remove(int k, int position) {
+        int index = position >> k;
+        int word = index >>> 6;
+
+        long[] page = pages[k][word / PAGE_WORDS];
+        page[word % PAGE_WORDS] &= ~(1L << index);
+        boolean isEmpty = page[word % PAGE_WORDS] == 0;
+
+        // Clear bits going up while a word becomes zero
+        // The page is kept, it is likely to be used again
+        long[][] levels = summaries[k];
+        index = word;
+        for (int level = 0; isEmpty && level < levels.length; level++) {
+            word = index >>> 6;
+            levels[level][word] &= ~(1L << index);
+            isEmpty = levels[level][word] == 0;
+            index = word;
+        }
+
+        counts[k]--;
+        if (counts[k] == 0) {
+            flip(k);
+        }
+    }
+
+
+    /**
+     * Flip the bit of an order in the mask of non empty orders
+     * Other orders' bits may change at the same time
+     *
+     * @param k
+     *            The order whose bit flips
+     */
+    private void flip(int k) {
+        int mask;
+        do {
+            mask = orders.get();
+        }
+        while (!orders.compareAndSet(mask, mask ^ (1 << k)));
+    }
+
+
+    /**
+     * Remove and return the lowest free address of an order
+     *
+     * @param k
+     *            The order to pop from
+     * @return the address or -1 if there are no free blocks
+     */
+    public int pop(int k) {
+        int position = first(k);
+
+        if (position >= 0) {
+            remove(k, position);
+        }
+        return position;
+    }
+
+
+    /**
+     * Return true if the block is free
+     *
+     * @param k
+     *            The order of the block
+     * @param position
+     *            The starting address of the block
+     * @return true if free
+     */
+    public boolean contains(int k, int position) {
+        int index = position >> k;
+        int word = index >>> 6;
+        long[] page = pages[k][word / PAGE_WORDS];
+        return page != null && (page[word % PAGE_WORDS] & (1L << index)) != 0;
+    }
+
+
+    /**
+     * Return the lowest free address of an order
+     *
+     * @param k
+     *            The order to check
+     * @return the address or -1 if there are no free blocks
+     */
+    public int first(int k) {
+        return next(k, 0);
+    }
+
+
+    /**
+     * Return the lowest free address of an order that is at least
+     * the given address
+     *
+     * @param k
+     *            The order to check
+     * @param position
+     *            The address to start from
+     * @return the address or -1 if there is none
+     */
+    public int next(int k, int position) {
+        int index = (position + (1 << k) - 1) >> k;
+        int word = index >>> 6;
+        if (word >= numWords(capacity >> k)) {
+            return -1;
+        }
+
+        // Look in the word holding index first
+        long[] page = pages[k][word / PAGE_WORDS];
+        if (page != null) {
+            long bits = page[word % PAGE_WORDS] & (-1L << index);
+            if (bits != 0) {
+                return ((word << 6) + Long.numberOfTrailingZeros(bits)) << k;
+            }
+        }
+
+        // Climb until a summary has a set bit after that word
+        long[][] levels = summaries[k];
+        index = word + 1;
+        int level = 0;
+        while (level < levels.length) {
+            word = index >>> 6;
+            if (word >= levels[level].length) {
+                return -1;
+            }
+
+            long bits = levels[level][word] & (-1L << index);
+            if (bits != 0) {
+                index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                break;
+            }
+
+            // Nothing left in this word, look after it one level up
+            index = word + 1;
+            level++;
+        }
+
+        if (level == levels.length) {
+            return -1;
+        }
+
+        // Descend taking the lowest set bit each time
+        while (level > 0) {
+            level--;
+            long bits = levels[level][index];
+            index = (index << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        long bits = pages[k][index / PAGE_WORDS][index % PAGE_WORDS];
+        return ((index << 6) + Long.numberOfTrailingZeros(bits)) << k;
+    }
+
+
+    /**
+     * Return true if an order has no free blocks
+     *
+     * @param k
+     *            The order to check
+     * @return true if empty
+     */
+    public boolean isEmpty(int k) {
+        return counts[k] == 0;
+    }
+
+
+    /**
+     * Return the smallest order at or above k that has a free block
+     *
+     * @param k
+     *            The smallest order wanted
+     * @return the order or -1 if there is none
+     */
+    public int smallestFrom(int k) {
+        if (k > this.n) {
+            return -1;
+        }
+
+        int candidates = orders.get() & (-1 << k);
+        if (candidates == 0) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(candidates);
+    }
+
+
+    /**
+     * Return the largest order with a free block
+     *
+     * @return the order or -1 if there is none
+     */
+    public int largest() {
+        return 31 - Integer.numberOfLeadingZeros(orders.get());
+    }
+
+
+    /**
+     * Return the number of free blocks in an order
+     *
+     * @param k
+     *            The order to check
+     * @return the number of free blocks
+     */
+    public int count(int k) {
+        return counts[k];
+    }
+
+
+    /**
+     * Double the capacity being tracked
+     * Existing free blocks are kept, the new half is not added
+     */
+    public void grow() {
+        capacity *= 2;
+        this.n += 1;
+
+        pages = Arrays.copyOf(pages, this.n + 1);
+        summaries = Arrays.copyOf(summaries, this.n + 1);
+        for (int k = 0; k < this.n; k++) {
+            resize(k);
+        }
+        pages[this.n] = new long[1][];
+        summaries[this.n] = buildSummaries(new long[1]);
+
+        counts = Arrays.copyOf(counts, this.n + 1);
+    }
+
+
+    /**
+     * Halve the capacity being tracked
+     * The upper half and the top order must have no free blocks
+     */
+    public void shrink() {
+        capacity /= 2;
+        this.n -= 1;
+
+        pages = Arrays.copyOf(pages, this.n + 1);
+        summaries = Arrays.copyOf(summaries, this.n + 1);
+        for (int k = 0; k <= this.n; k++) {
+            resize(k);
+        }
+
+        counts = Arrays.copyOf(counts, this.n + 1);
+    }
+
+
+    /**
+     * Return the capacity being tracked
+     *
+     * @return capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Return the number of pages of bits made so far
+     *
+     * @return the number of pages
+     */
+    public int numPages() {
+        int made = 0;
+        for (long[][] order : pages) {
+            for (long[] page : order) {
+                if (page != null) {
+                    made++;
+                }
+            }
+        }
+        return made;
+    }
+
+
+    /**
+     * Fit an order's pages and summaries to the capacity
+     * Pages are kept as they are, only their references move
+     *
+     * @param k
+     *            The order
+     */
+    private void resize(int k) {
+        int words = numWords(capacity >> k);
+        pages[k] = Arrays.copyOf(pages[k], numWords(words));
+        summaries[k] = buildSummaries(Arrays.copyOf(summaries[k][0],
+            numWords(words)));
+    }
+
+
+    /**
+     * Build the summary levels above the first one
+     *
+     * @param first
+     *            The first summary level, one bit per page word
+     * @return all summary levels, the first one first
+     */
+    private long[][] buildSummaries(long[] first) {
+        // Count the levels
+        int depth = 1;
+        for (int above = first.length; above > 1; above = numWords(above)) {
+            depth++;
+        }
+
+        long[][] levels = new long[depth][];
+        levels[0] = first;
+
+        for (int level = 1; level < depth; level++) {
+            long[] below = levels[level - 1];
+            long[] summary = new long[numWords(below.length)];
+
+            for (int i = 0; i < below.length; i++) {
+                if (below[i] != 0) {
+                    summary[i >>> 6] |= 1L << i;
+                }
+            }
+            levels[level] = summary;
+        }
+
+        return levels;
+    }
+
+
+    /**
+     * Return the number of words needed to hold some bits
+     *
+     * @param bits
+     *            The number of bits
+     * @return the number of 64 bit words
+     */
+    private static int numWords(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+}
@@ -0,0 +1,195 @@
+import student.TestCase;
+
+/**
+ * Test the methods of the FreeBlockList class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class FreeBlockListTest extends TestCase {
+
+    private FreeBlockList list;
+
+    /**
+     * Set up the test object
+     */
+    public void setUp() {
+        list = new FreeBlockList(512);
+    }
+
+
+    /**
+     * Test that a new list is empty
+     */
+    public void testEmpty() {
+        for (int k = 0; k <= 9; k++) {
+            assertTrue(list.isEmpty(k));
+            assertEquals(list.count(k), 0);
+            assertEquals(list.first(k), -1);
+            assertEquals(list.pop(k), -1);
+        }
+        assertEquals(list.getCapacity(), 512);
+    }
+
+
+    /**
+     * Test push and pop always return the lowest address
+     */
+    public void testPopLowest() {
+        list.push(3, 40);
+        list.push(3, 8);
+        list.push(3, 504);
+        list.push(3, 0);
+
+        assertEquals(list.count(3), 4);
+        assertEquals(list.pop(3), 0);
+        assertEquals(list.pop(3), 8);
+        assertEquals(list.pop(3), 40);
+        assertEquals(list.pop(3), 504);
+        assertTrue(list.isEmpty(3));
+    }
+
+
+    /**
+     * Test contains and removing a specific block
+     */
+    public void testContainsRemove() {
+        list.push(0, 7);
+        list.push(0, 300);
+
+        assertTrue(list.contains(0, 7));
+        assertTrue(list.contains(0, 300));
+        assertFalse(list.contains(0, 6));
+        assertFalse(list.contains(1, 6));
+
+        list.remove(0, 7);
+        assertFalse(list.contains(0, 7));
+        assertEquals(list.first(0), 300);
+        assertEquals(list.count(0), 1);
+    }
+
+
+    /**
+     * Test walking through the blocks of an order in order
+     */
+    public void testNext() {
+        list.push(0, 511);
+        list.push(0, 64);
+        list.push(0, 3);
+        list.push(0, 200);
+
+        assertEquals(list.next(0, 0), 3);
+        assertEquals(list.next(0, 4), 64);
+        assertEquals(list.next(0, 65), 200);
+        assertEquals(list.next(0, 201), 511);
+        assertEquals(list.next(0, 512), -1);
+
+        // Unaligned start rounds up to the next block
+        list.push(4, 32);
+        assertEquals(list.next(4, 17), 32);
+        assertEquals(list.next(4, 33), -1);
+    }
+
+
+    /**
+     * Test a large order 0 bitmap with several summary levels
+     */
+    public void testManyLevels() {
+        list = new FreeBlockList(1 << 20);
+
+        list.push(0, 999999);
+        list.push(0, 4097);
+        assertEquals(list.first(0), 4097);
+        assertEquals(list.next(0, 4098), 999999);
+
+        list.remove(0, 4097);
+        assertEquals(list.pop(0), 999999);
+        assertEquals(list.first(0), -1);
+    }
+
+
+    /**
+     * Test finding the smallest non empty order
+     */
+    public void testSmallestFrom() {
+        assertEquals(list.smallestFrom(0), -1);
+
+        list.push(5, 32);
+        list.push(8, 256);
+        assertEquals(list.smallestFrom(0), 5);
+        assertEquals(list.smallestFrom(5), 5);
+        assertEquals(list.smallestFrom(6), 8);
+        assertEquals(list.smallestFrom(9), -1);
+        assertEquals(list.smallestFrom(40), -1);
+
+        list.pop(5);
+        assertEquals(list.smallestFrom(0), 8);
+    }
+
+
+    /**
+     * Test growing keeps existing blocks
+     */
+    public void testGrow() {
+        list.push(9, 0);
+        list.push(2, 4);
+
+        list.grow();
+        assertEquals(list.getCapacity(), 1024);
+        assertTrue(list.isEmpty(10));
+
+        list.push(9, 512);
+        assertEquals(list.pop(9), 0);
+        assertEquals(list.pop(9), 512);
+        assertEquals(list.pop(2), 4);
+    }
+
+
+    /**
+     * Test pages of bits are only made where blocks are freed
+     */
+    public void testPagesMadeOnUse() {
+        list = new FreeBlockList(1 << 20);
+        assertEquals(list.numPages(), 0);
+
+        // One page holds 4096 blocks of an order
+        list.push(0, 5);
+        list.push(0, 4095);
+        assertEquals(list.numPages(), 1);
+        list.push(0, 4096);
+        list.push(4, 1 << 19);
+        assertEquals(list.numPages(), 3);
+
+        // Emptied pages are kept for reuse
+        list.pop(0);
+        list.pop(0);
+        list.pop(0);
+        assertEquals(list.numPages(), 3);
+        assertEquals(list.first(0), -1);
+        assertEquals(list.first(4), 1 << 19);
+    }
+
+
+    /**
+     * Test growing and shrinking across a page boundary
+     */
+    public void testGrowPastPage() {
+        list = new FreeBlockList(4096);
+        list.push(0, 4095);
+
+        list.grow();
+        list.push(0, 8000);
+        assertTrue(list.contains(0, 4095));
+        assertEquals(list.next(0, 4096), 8000);
+        assertEquals(list.numPages(), 2);
+
+        list.remove(0, 8000);
+        list.shrink();
+        assertEquals(list.getCapacity(), 4096);
+        assertEquals(list.numPages(), 1);
+        assertEquals(list.pop(0), 4095);
+        assertEquals(list.first(0), -1);
+    }
+
+}
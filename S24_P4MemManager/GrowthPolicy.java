@@ -0,0 +1,106 @@
+/**
+ * This class decides how far the memory manager grows its pool.
+ * The pool grows by a factor, a power of two, and keeps growing
+ * until a fraction of it, the headroom, is free. The default
+ * doubles once with no headroom, so a load that outgrows the pool
+ * by a lot expands once per doubling.
+ *
+ * A pool can also be sized up front from the records it will hold,
+ * so a load reaches its final capacity in one step.
+ *
+ * Capacities and sizes may be in bytes or in the manager's units,
+ * the policy only compares them.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class GrowthPolicy {
+
+    // Double once per resize, no headroom
+    public static final GrowthPolicy DOUBLE = new GrowthPolicy(2, 0);
+
+    // The pool grows at least this many times over
+    private int factor;
+
+    // Fraction of the pool left free after growing
+    private double headroom;
+
+    /**
+     * Constructor for GrowthPolicy
+     *
+     * @param factor
+     *            The least growth, rounded up to a power of two of at
+     *            least 2
+     * @param headroom
+     *            Fraction of the pool to keep free, from 0 up to
+     *            but not including 1
+     */
+    public GrowthPolicy(int factor, double headroom) {
+        if (headroom < 0 || headroom >= 1) {
+            throw new IllegalArgumentException(
+                "Headroom must be at least 0 and below 1");
+        }
+
+        this.factor = Math.max(2, 1 << (32 - Integer.numberOfLeadingZeros(
+            factor - 1)));
+        this.headroom = headroom;
+    }
+
+
+    /**
+     * Return the capacity to grow to
+     *
+     * @param capacity
+     *            The capacity now
+     * @param free
+     *            The free space now
+     * @return the new capacity, at least factor times the old one
+     */
+    public long nextCapacity(long capacity, long free) {
+        long used = capacity - free;
+        long newCapacity = capacity * factor;
+        while (newCapacity - used < headroom * newCapacity) {
+            newCapacity *= 2;
+        }
+        return newCapacity;
+    }
+
+
+    /**
+     * Return the smallest capacity that holds used space and still
+     * leaves the headroom free
+     *
+     * @param used
+     *            The space in use
+     * @return a power of two capacity
+     */
+    public long capacityFor(long used) {
+        long capacity = 1;
+        while (capacity < used || capacity - used < headroom * capacity) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+
+    /**
+     * Return the growth factor
+     *
+     * @return the factor
+     */
+    public int getFactor() {
+        return factor;
+    }
+
+
+    /**
+     * Return the headroom
+     *
+     * @return the fraction kept free
+     */
+    public double getHeadroom() {
+        return headroom;
+    }
+
+}
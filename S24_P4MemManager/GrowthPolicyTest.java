@@ -0,0 +1,72 @@
+import student.TestCase;
+
+/**
+ * Test the methods of the GrowthPolicy class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class GrowthPolicyTest extends TestCase {
+
+    /**
+     * Test the default doubles once
+     */
+    public void testDouble() {
+        GrowthPolicy policy = GrowthPolicy.DOUBLE;
+        assertEquals(policy.getFactor(), 2);
+        assertEquals(policy.getHeadroom(), 0.0, 0.0);
+        assertEquals(policy.nextCapacity(64, 0), 128L);
+        assertEquals(policy.capacityFor(100), 128L);
+        assertEquals(policy.capacityFor(128), 128L);
+    }
+
+
+    /**
+     * Test factors round up to a power of two
+     */
+    public void testFactor() {
+        assertEquals(new GrowthPolicy(3, 0).getFactor(), 4);
+        assertEquals(new GrowthPolicy(1, 0).getFactor(), 2);
+        assertEquals(new GrowthPolicy(8, 0).nextCapacity(64, 10), 512L);
+    }
+
+
+    /**
+     * Test growing keeps the headroom free
+     */
+    public void testHeadroom() {
+        GrowthPolicy policy = new GrowthPolicy(2, 0.75);
+
+        // 64 used needs 256 to leave three quarters free
+        assertEquals(policy.nextCapacity(64, 0), 256L);
+        assertEquals(policy.nextCapacity(64, 48), 128L);
+        assertEquals(policy.capacityFor(100), 512L);
+        assertEquals(policy.capacityFor(0), 1L);
+    }
+
+
+    /**
+     * Test bad headroom is refused
+     */
+    public void testBadHeadroom() {
+        Exception thrown = null;
+        try {
+            new GrowthPolicy(2, 1.0);
+        }
+        catch (IllegalArgumentException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+
+        thrown = null;
+        try {
+            new GrowthPolicy(2, -0.5);
+        }
+        catch (IllegalArgumentException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+    }
+
+}
@@ -10,8 +10,13 @@
  */
 public class Handle {
 
+    // Set in the address of a record kept outside the pool
+    // The rest of the address is the record's slot
+    public static final long LARGE = 1L << 62;
+
     // The starting byte address in memory
-    private int address;
+    // A long address costs no space, the object is 24 bytes either way
+    private long address;
 
     // The length of the record in bytes
     private int length;
@@ -24,7 +29,7 @@ public class Handle {
      * @param length
      *            The length of the record in bytes
      */
-    public Handle(int address, int length) {
+    public Handle(long address, int length) {
         this.address = address;
         this.length = length;
     }
@@ -43,7 +48,7 @@ public class Handle {
      * 
      * @return the address
      */
-    public int getAddress() {
+    public long getAddress() {
         return address;
     }
 
@@ -57,4 +62,14 @@ public class Handle {
         return length;
     }
 
+
+    /**
+     * Returns true if the record is kept outside the pool
+     * 
+     * @return true if large
+     */
+    public boolean isLarge() {
+        return address > 0 && (address & LARGE) != 0;
+    }
+
 }
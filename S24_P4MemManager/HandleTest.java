@@ -38,4 +38,17 @@ public class HandleTest extends TestCase {
         assertEquals(handle.getLength(), -1);
     }
 
+
+    /**
+     * Test the large record flag
+     */
+    public void testLarge() {
+        assertFalse(handle.isLarge());
+        assertFalse(new Handle().isLarge());
+
+        handle = new Handle(Handle.LARGE | 3, 500);
+        assertTrue(handle.isLarge());
+        assertEquals(handle.getLength(), 500);
+    }
+
 }
@@ -294,6 +294,55 @@ public class HashTable {
     }
 
 
+    /**
+     * Returns the entry stored at an index of the table
+     * 
+     * @param index
+     *            The index, between 0 and capacity - 1
+     * @return the entry
+     */
+    public HashEntry getEntry(int index) {
+        return table[index];
+    }
+
+
+    /**
+     * Replace the value of a key if it exists
+     * A new entry takes the old one's place in the table
+     * 
+     * @param key
+     *            The key to update
+     * @param value
+     *            The new value
+     * @return true if the key was found
+     */
+    public boolean update(int key, Handle value) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+
+        HashEntry entry = new HashEntry(key, value);
+        entry.setState(HashEntryState.FULL);
+        table[index] = entry;
+        return true;
+    }
+
+
+    /**
+     * Remove every key, keeping the capacity
+     * Only slots that were used get a new entry
+     */
+    public void clear() {
+        for (int i = 0; i < capacity; i++) {
+            if (table[i].getState() != HashEntryState.EMPTY) {
+                table[i] = new HashEntry();
+            }
+        }
+        size = 0;
+    }
+
+
     /**
      * Prints the hashtable to standard out
      */
@@ -743,4 +743,60 @@ public class HashTableTest extends TestCase {
         assertFuzzyEquals(actual, expected);
     }
 
+
+    /**
+     * Test reading entries by table index
+     */
+    public void testGetEntry() {
+        table = new HashTable(8);
+        table.insert(3, new Handle(1, 2));
+
+        HashEntry entry = table.getEntry(3);
+        assertEquals(entry.getKey(), 3);
+        assertEquals(entry.getState(), HashEntryState.FULL);
+        assertEquals(entry.getValue().getLength(), 2);
+
+        assertEquals(table.getEntry(0).getState(), HashEntryState.EMPTY);
+    }
+
+
+    /**
+     * Test replacing the value of a key
+     */
+    public void testUpdate() {
+        table = new HashTable(8);
+        table.insert(3, new Handle(1, 2));
+
+        assertTrue(table.update(3, new Handle(5, 2)));
+        assertEquals(table.get(3).getAddress(), 5);
+        assertEquals(table.getSize(), 1);
+        assertEquals(table.getEntry(3).getState(), HashEntryState.FULL);
+
+        assertFalse(table.update(4, new Handle(5, 2)));
+        assertFalse(table.contains(4));
+    }
+
+
+    /**
+     * Test clearing the table keeps its capacity
+     */
+    public void testClear() {
+        table = new HashTable(8);
+        table.insert(3, new Handle(1, 2));
+        table.insert(11, new Handle(3, 2));
+        table.insert(5, new Handle(5, 2));
+        table.remove(11);
+
+        table.clear();
+        assertTrue(table.isEmpty());
+        assertEquals(table.getCapacity(), 8);
+        assertFalse(table.contains(3));
+        for (int i = 0; i < 8; i++) {
+            assertEquals(table.getEntry(i).getState(), HashEntryState.EMPTY);
+        }
+
+        // Usable again
+        assertTrue(table.insert(11, new Handle(7, 2)));
+        assertEquals(table.get(11).getAddress(), 7);
+    }
 }
@@ -0,0 +1,236 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class keeps large records outside the memory pool.
+ * Every record gets a buffer of its own, on the heap or off heap
+ * (direct), found by a slot number. A large record taking a block
+ * of the buddy pool would split it from the top order and often
+ * double the whole pool, so records at or above the threshold are
+ * kept here and the pool stays dense for the small ones.
+ *
+ * Taking and freeing slots holds this object's lock, copying bytes
+ * and reads do not.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class LargeObjectStore {
+
+    // The buffer of every slot, null when the slot is free
+    // Grown by replacing the array, so readers need no lock
+    private volatile ByteBuffer[] segments;
+
+    // Free slots, the top is the next one used
+    private int[] freeSlots;
+    private int freeCount;
+
+    // Records at least this long are large
+    private int threshold;
+
+    // True if the buffers are off heap
+    private boolean direct;
+
+    // Number of records and the bytes they hold
+    private int count;
+    private long bytes;
+
+    /**
+     * Constructor for LargeObjectStore
+     *
+     * @param threshold
+     *            Records at least this many bytes are kept here
+     * @param direct
+     *            True to keep the buffers off heap
+     */
+    public LargeObjectStore(int threshold, boolean direct) {
+        this.threshold = threshold;
+        this.direct = direct;
+
+        segments = new ByteBuffer[8];
+        freeSlots = new int[8];
+        for (int i = 0; i < freeSlots.length; i++) {
+            freeSlots[i] = freeSlots.length - 1 - i;
+        }
+        freeCount = freeSlots.length;
+    }
+
+
+    /**
+     * Return true if a record of this size is kept here
+     *
+     * @param size
+     *            The record length
+     * @return true if large
+     */
+    public boolean fits(int size) {
+        return size >= threshold;
+    }
+
+
+    /**
+     * Take a slot and a buffer for a record
+     *
+     * @param size
+     *            The record length
+     * @return the slot
+     */
+    public synchronized int allocate(int size) {
+        if (freeCount == 0) {
+            // Double the slots, the new ones are all free
+            int old = segments.length;
+            ByteBuffer[] grown = Arrays.copyOf(segments, old * 2);
+            freeSlots = new int[old * 2];
+            for (int i = 0; i < old; i++) {
+                freeSlots[i] = old * 2 - 1 - i;
+            }
+            freeCount = old;
+            segments = grown;
+        }
+
+        int slot = freeSlots[--freeCount];
+        if (direct) {
+            segments[slot] = ByteBuffer.allocateDirect(size);
+        }
+        else {
+            segments[slot] = ByteBuffer.allocate(size);
+        }
+        count++;
+        bytes += size;
+        return slot;
+    }
+
+
+    /**
+     * Free a slot and drop its buffer
+     *
+     * @param slot
+     *            The slot
+     * @return the bytes the buffer held
+     */
+    public synchronized int release(int slot) {
+        int taken = segments[slot].capacity();
+        bytes -= taken;
+        count--;
+        segments[slot] = null;
+        freeSlots[freeCount++] = slot;
+        return taken;
+    }
+
+
+    /**
+     * Return the bytes a slot's buffer holds
+     *
+     * @param slot
+     *            The slot
+     * @return the buffer capacity
+     */
+    public int capacityOf(int slot) {
+        return segments[slot].capacity();
+    }
+
+
+    /**
+     * Copy bytes from src into a slot's buffer
+     *
+     * @param slot
+     *            The slot
+     * @param src
+     *            The array to copy from
+     * @param length
+     *            The number of bytes to copy
+     */
+    public void write(int slot, byte[] src, int length) {
+        ByteBuffer segment = segments[slot];
+        if (segment.hasArray()) {
+            System.arraycopy(src, 0, segment.array(), segment.arrayOffset(),
+                length);
+        }
+        else {
+            // Work on a duplicate so the shared position is left alone
+            ByteBuffer target = segment.duplicate();
+            target.clear();
+            target.put(src, 0, length);
+        }
+    }
+
+
+    /**
+     * Copy bytes from a slot's buffer into dst
+     *
+     * @param slot
+     *            The slot
+     * @param dst
+     *            The array to copy into
+     * @param length
+     *            The number of bytes to copy
+     */
+    public void read(int slot, byte[] dst, int length) {
+        ByteBuffer source = segments[slot].duplicate();
+        source.clear();
+        source.get(dst, 0, length);
+    }
+
+
+    /**
+     * Return a read-only view of the start of a slot's buffer
+     *
+     * @param slot
+     *            The slot
+     * @param length
+     *            The number of bytes to view
+     * @return a read-only buffer from position 0 to length
+     */
+    public ByteBuffer view(int slot, int length) {
+        ByteBuffer view = segments[slot].asReadOnlyBuffer();
+        view.clear();
+        view.limit(length);
+        return view.slice();
+    }
+
+
+    /**
+     * Free every slot
+     */
+    public synchronized void clear() {
+        Arrays.fill(segments, null);
+        for (int i = 0; i < segments.length; i++) {
+            freeSlots[i] = segments.length - 1 - i;
+        }
+        freeCount = segments.length;
+        count = 0;
+        bytes = 0;
+    }
+
+
+    /**
+     * Return the threshold
+     *
+     * @return the least length kept here
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+
+    /**
+     * Return the number of records kept here
+     *
+     * @return the record count
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+
+    /**
+     * Return the bytes held by the records kept here
+     *
+     * @return the bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+}
@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import student.TestCase;
+
+/**
+ * Test the methods of the LargeObjectStore class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class LargeObjectStoreTest extends TestCase {
+
+    private LargeObjectStore heap;
+
+    private LargeObjectStore direct;
+
+    /**
+     * Set up the test objects, records of 100 bytes or more
+     */
+    public void setUp() {
+        heap = new LargeObjectStore(100, false);
+        direct = new LargeObjectStore(100, true);
+    }
+
+
+    /**
+     * Test the threshold
+     */
+    public void testFits() {
+        assertEquals(heap.getThreshold(), 100);
+        assertFalse(heap.fits(99));
+        assertTrue(heap.fits(100));
+        assertTrue(heap.fits(5000));
+    }
+
+
+    /**
+     * Test writing and reading a record both ways
+     */
+    public void testWriteRead() {
+        byte[] src = new byte[150];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte)i;
+        }
+
+        for (LargeObjectStore store : new LargeObjectStore[] { heap,
+            direct }) {
+            int slot = store.allocate(150);
+            assertEquals(store.capacityOf(slot), 150);
+            store.write(slot, src, 150);
+
+            byte[] dst = new byte[150];
+            store.read(slot, dst, 150);
+            for (int i = 0; i < src.length; i++) {
+                assertEquals(dst[i], src[i]);
+            }
+
+            ByteBuffer view = store.view(slot, 120);
+            assertTrue(view.isReadOnly());
+            assertEquals(view.remaining(), 120);
+            assertEquals(view.get(119), (byte)119);
+        }
+    }
+
+
+    /**
+     * Test freed slots are used again and slots grow when full
+     */
+    public void testSlots() {
+        int first = heap.allocate(100);
+        int second = heap.allocate(200);
+        assertEquals(heap.getCount(), 2);
+        assertEquals(heap.getBytes(), 300L);
+
+        heap.release(first);
+        assertEquals(heap.getCount(), 1);
+        assertEquals(heap.getBytes(), 200L);
+        assertEquals(heap.allocate(100), first);
+
+        // More records than the starting slots
+        for (int i = 0; i < 20; i++) {
+            heap.allocate(100);
+        }
+        assertEquals(heap.getCount(), 22);
+        assertEquals(heap.capacityOf(second), 200);
+    }
+
+
+    /**
+     * Test freeing every slot
+     */
+    public void testClear() {
+        for (int i = 0; i < 10; i++) {
+            direct.allocate(128);
+        }
+        direct.clear();
+        assertEquals(direct.getCount(), 0);
+        assertEquals(direct.getBytes(), 0L);
+        assertEquals(direct.allocate(100), 0);
+    }
+
+}
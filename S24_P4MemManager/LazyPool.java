@@ -0,0 +1,422 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class represents a memory pool whose pages are committed on
+ * first write. Growing only makes the page table longer, so doubling
+ * a large pool neither allocates nor zeroes the new half and memory
+ * use follows the pages records were written to.
+ *
+ * Page i holds addresses i * 2^pageOrder up to the next page. A page
+ * never written reads as zeros. Pages are on the heap or off heap
+ * (direct) like BufferPool segments.
+ *
+ * Pages wholly inside a range the memory manager frees in one large
+ * block are given back and read as zeros until written again. A bit
+ * per page marks the committed ones, so giving back a range skips
+ * 64 uncommitted pages at a time and stops once none are left.
+ *
+ * Committing a page, giving pages back or growing holds this object's
+ * lock, reads and writes of committed pages do not.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class LazyPool implements MemoryPool {
+
+    // Default page size, 64 KB
+    private static final int PAGE_ORDER = 16;
+
+    // The pages of the pool, null until first written
+    // Grown by replacing the array, so readers need no lock
+    private volatile AtomicReferenceArray<ByteBuffer> pages;
+
+    // 2^pageOrder = bytes in a page
+    private int pageOrder;
+
+    // Total capacity of the pool
+    private long capacity;
+
+    // Number of pages written to
+    private int committed;
+
+    // Bit i of word i / 64 is set while page i is committed
+    // Changed only under this object's lock
+    private long[] inUse;
+
+    // True if the pages are off heap
+    private boolean direct;
+
+    /**
+     * Constructor for LazyPool
+     *
+     * @param capacity
+     *            The initial capacity must be a power of two
+     * @param direct
+     *            True to keep the pages off heap
+     */
+    public LazyPool(long capacity, boolean direct) {
+        this(capacity, direct, PAGE_ORDER);
+    }
+
+
+    /**
+     * Constructor for LazyPool with a given page size
+     *
+     * @param capacity
+     *            The initial capacity must be a power of two
+     * @param direct
+     *            True to keep the pages off heap
+     * @param pageOrder
+     *            2^pageOrder is the bytes in a page, at most the
+     *            capacity
+     */
+    public LazyPool(long capacity, boolean direct, int pageOrder) {
+        this.direct = direct;
+        this.capacity = capacity;
+        this.pageOrder = Math.min(pageOrder, Long.numberOfTrailingZeros(
+            capacity));
+
+        pages = new AtomicReferenceArray<ByteBuffer>((int)(capacity
+            >> this.pageOrder));
+        inUse = new long[words(pages.length())];
+    }
+
+
+    /**
+     * Copy bytes from src into the pool
+     * Pages written for the first time are committed
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param src
+     *            The array to copy from
+     * @param length
+     *            The number of bytes to copy
+     */
+    @Override
+    public void write(long address, byte[] src, int length) {
+        int done = 0;
+
+        while (done < length) {
+            ByteBuffer page = commit(pageOf(address + done));
+            int offset = offsetOf(address + done);
+            int chunk = Math.min(length - done, page.capacity() - offset);
+
+            if (page.hasArray()) {
+                System.arraycopy(src, done, page.array(), page.arrayOffset()
+                    + offset, chunk);
+            }
+            else {
+                // Absolute puts leave the buffer position alone
+                for (int i = 0; i < chunk; i++) {
+                    page.put(offset + i, src[done + i]);
+                }
+            }
+            done += chunk;
+        }
+    }
+
+
+    /**
+     * Copy bytes from the pool into dst
+     * Pages never written read as zeros
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param dst
+     *            The array to copy into
+     * @param length
+     *            The number of bytes to copy
+     */
+    @Override
+    public void read(long address, byte[] dst, int length) {
+        int done = 0;
+
+        while (done < length) {
+            ByteBuffer page = pages.get(pageOf(address + done));
+            int offset = offsetOf(address + done);
+            int chunk = Math.min(length - done, (1 << pageOrder) - offset);
+
+            if (page == null) {
+                Arrays.fill(dst, done, done + chunk, (byte)0);
+            }
+            else if (page.hasArray()) {
+                System.arraycopy(page.array(), page.arrayOffset() + offset,
+                    dst, done, chunk);
+            }
+            else {
+                for (int i = 0; i < chunk; i++) {
+                    dst[done + i] = page.get(offset + i);
+                }
+            }
+            done += chunk;
+        }
+    }
+
+
+    /**
+     * Read a four byte int from the pool
+     * Pages start at multiples of four, so an int never crosses one
+     *
+     * @param address
+     *            The byte address, a multiple of four
+     * @return the int, 0 if the page was never written
+     */
+    @Override
+    public int getInt(long address) {
+        ByteBuffer page = pages.get(pageOf(address));
+        if (page == null) {
+            return 0;
+        }
+        return page.getInt(offsetOf(address));
+    }
+
+
+    /**
+     * Write a four byte int into the pool
+     *
+     * @param address
+     *            The byte address, a multiple of four
+     * @param value
+     *            The int to write
+     */
+    @Override
+    public void putInt(long address, int value) {
+        commit(pageOf(address)).putInt(offsetOf(address), value);
+    }
+
+
+    /**
+     * Return a read-only view of bytes in the pool
+     * A record inside one written page is a slice of it, anything
+     * else is a copy
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param length
+     *            The number of bytes to view
+     * @return a read-only buffer from position 0 to length
+     */
+    @Override
+    public ByteBuffer view(long address, int length) {
+        ByteBuffer page = pages.get(pageOf(address));
+        int offset = offsetOf(address);
+
+        if (page == null || offset + length > page.capacity()) {
+            byte[] copy = new byte[length];
+            read(address, copy, length);
+            return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+        }
+
+        // Work on a duplicate so the shared position is left alone
+        ByteBuffer view = page.asReadOnlyBuffer();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+
+    /**
+     * Grow the pool, nothing is allocated until it is written
+     *
+     * @param newCapacity
+     *            The new capacity, a power of two times the old one
+     */
+    @Override
+    public synchronized void grow(long newCapacity) {
+        pages = copyPages((int)(newCapacity >> pageOrder));
+        inUse = Arrays.copyOf(inUse, words(pages.length()));
+        capacity = newCapacity;
+    }
+
+
+    /**
+     * Shrink the pool, pages past the new end are given back
+     *
+     * @param newCapacity
+     *            The new capacity, the old one over a power of two
+     */
+    @Override
+    public synchronized void shrink(long newCapacity) {
+        int count = (int)(newCapacity >> pageOrder);
+        drop(count, pages.length());
+
+        pages = copyPages(count);
+        inUse = Arrays.copyOf(inUse, words(count));
+        capacity = newCapacity;
+    }
+
+
+    /**
+     * Give back the pages wholly inside a range
+     * Pages the range only partly covers are kept
+     *
+     * @param address
+     *            The starting byte address of the range
+     * @param length
+     *            The number of bytes in the range
+     */
+    @Override
+    public void decommit(long address, long length) {
+        int first = pageOf(address + (1 << pageOrder) - 1);
+        int end = pageOf(address + length);
+        if (first >= end) {
+            return;
+        }
+
+        synchronized (this) {
+            drop(first, end);
+        }
+    }
+
+
+    /**
+     * Give back the committed pages in a range of page indexes
+     * Call only under this object's lock
+     *
+     * @param first
+     *            The first page index
+     * @param end
+     *            One past the last page index
+     */
+    private void drop(int first, int end) {
+        for (int w = first >>> 6; w < words(end) && committed > 0; w++) {
+            // Only the pages of this word inside the range
+            long bits = inUse[w];
+            if (w == first >>> 6) {
+                bits &= -1L << first;
+            }
+            if (w == (end - 1) >>> 6 && (end & 63) != 0) {
+                bits &= (1L << end) - 1;
+            }
+
+            while (bits != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                pages.set(i, null);
+                inUse[w] &= ~(1L << i);
+                committed--;
+            }
+        }
+    }
+
+
+    /**
+     * Return the capacity
+     *
+     * @return capacity in bytes
+     */
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Return the bytes in pages that have been written
+     *
+     * @return committed bytes
+     */
+    public synchronized long getCommittedBytes() {
+        return (long)committed << pageOrder;
+    }
+
+
+    /**
+     * Return the bytes in a page
+     *
+     * @return the page size
+     */
+    public int getPageSize() {
+        return 1 << pageOrder;
+    }
+
+
+    /**
+     * Return the page of an index, allocating it if it is new
+     *
+     * @param index
+     *            The page index
+     * @return the page
+     */
+    private ByteBuffer commit(int index) {
+        ByteBuffer page = pages.get(index);
+        if (page != null) {
+            return page;
+        }
+
+        // Under the lock so a grow cannot copy the table meanwhile
+        synchronized (this) {
+            page = pages.get(index);
+            if (page == null) {
+                if (direct) {
+                    page = ByteBuffer.allocateDirect(1 << pageOrder);
+                }
+                else {
+                    page = ByteBuffer.allocate(1 << pageOrder);
+                }
+                pages.set(index, page);
+                inUse[index >>> 6] |= 1L << index;
+                committed++;
+            }
+            return page;
+        }
+    }
+
+
+    /**
+     * Copy the page table into one of a new length
+     *
+     * @param count
+     *            The number of pages
+     * @return the new table
+     */
+    private AtomicReferenceArray<ByteBuffer> copyPages(int count) {
+        AtomicReferenceArray<ByteBuffer> copy;
+        copy = new AtomicReferenceArray<ByteBuffer>(count);
+        for (int i = 0; i < Math.min(count, pages.length()); i++) {
+            copy.set(i, pages.get(i));
+        }
+        return copy;
+    }
+
+
+    /**
+     * Return the number of bitmap words for a number of pages
+     *
+     * @param count
+     *            The number of pages
+     * @return the words needed
+     */
+    private static int words(int count) {
+        return (count + 63) >>> 6;
+    }
+
+
+    /**
+     * Return the index of the page holding an address
+     *
+     * @param address
+     *            The byte address
+     * @return the page index
+     */
+    private int pageOf(long address) {
+        return (int)(address >>> pageOrder);
+    }
+
+
+    /**
+     * Return the offset of an address inside its page
+     *
+     * @param address
+     *            The byte address
+     * @return the offset
+     */
+    private int offsetOf(long address) {
+        return (int)(address & ((1 << pageOrder) - 1));
+    }
+
+}
@@ -0,0 +1,226 @@
+import java.nio.ByteBuffer;
+import student.TestCase;
+
+/**
+ * Test the methods of the LazyPool class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class LazyPoolTest extends TestCase {
+
+    private LazyPool heap;
+
+    private LazyPool direct;
+
+    /**
+     * Set up the test objects, 16 byte pages
+     */
+    public void setUp() {
+        heap = new LazyPool(64, false, 4);
+        direct = new LazyPool(64, true, 4);
+    }
+
+
+    /**
+     * Test nothing is committed until written
+     */
+    public void testCommitOnWrite() {
+        assertEquals(heap.getCapacity(), 64L);
+        assertEquals(heap.getPageSize(), 16);
+        assertEquals(heap.getCommittedBytes(), 0L);
+
+        byte[] src = { 1, 2, 3, 4, 5 };
+        heap.write(20, src, 5);
+        assertEquals(heap.getCommittedBytes(), 16L);
+
+        // Crossing a page commits both
+        direct.write(14, src, 5);
+        assertEquals(direct.getCommittedBytes(), 32L);
+
+        byte[] dst = new byte[5];
+        direct.read(14, dst, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(dst[i], src[i]);
+        }
+    }
+
+
+    /**
+     * Test pages never written read as zeros
+     */
+    public void testUnwrittenReads() {
+        byte[] dst = { 9, 9, 9, 9 };
+        heap.read(40, dst, 4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(dst[i], 0);
+        }
+        assertEquals(heap.getInt(48), 0);
+
+        ByteBuffer view = heap.view(32, 8);
+        assertEquals(view.remaining(), 8);
+        assertEquals(view.get(7), 0);
+        assertEquals(heap.getCommittedBytes(), 0L);
+    }
+
+
+    /**
+     * Test growing allocates nothing and keeps old contents
+     */
+    public void testGrow() {
+        byte[] src = { 9, 8, 7 };
+        heap.write(13, src, 3);
+        heap.putInt(60, 42);
+
+        heap.grow(1 << 20);
+        assertEquals(heap.getCapacity(), 1L << 20);
+        assertEquals(heap.getCommittedBytes(), 32L);
+
+        byte[] dst = new byte[3];
+        heap.read(13, dst, 3);
+        assertEquals(dst[2], 7);
+        assertEquals(heap.getInt(60), 42);
+
+        // Only the page written in the new part is committed
+        heap.write(500000, src, 3);
+        assertEquals(heap.getCommittedBytes(), 48L);
+        assertEquals(heap.view(500000, 3).get(1), 8);
+    }
+
+
+    /**
+     * Test shrinking gives back the pages past the end
+     */
+    public void testShrink() {
+        byte[] src = { 1, 2 };
+        heap.grow(128);
+        heap.write(0, src, 2);
+        heap.write(100, src, 2);
+        assertEquals(heap.getCommittedBytes(), 32L);
+
+        heap.shrink(64);
+        assertEquals(heap.getCapacity(), 64L);
+        assertEquals(heap.getCommittedBytes(), 16L);
+
+        // Growing again finds a fresh page
+        heap.grow(128);
+        byte[] dst = new byte[2];
+        heap.read(100, dst, 2);
+        assertEquals(dst[0], 0);
+    }
+
+
+    /**
+     * Test giving back the pages wholly inside a range
+     */
+    public void testDecommit() {
+        byte[] src = { 1, 2 };
+        heap.grow(128);
+        heap.write(0, src, 2);
+        heap.write(40, src, 2);
+        heap.write(100, src, 2);
+        assertEquals(heap.getCommittedBytes(), 48L);
+
+        // Only the middle page lies wholly inside
+        heap.decommit(8, 100);
+        assertEquals(heap.getCommittedBytes(), 32L);
+        byte[] dst = new byte[2];
+        heap.read(40, dst, 2);
+        assertEquals(dst[0], 0);
+        heap.read(100, dst, 2);
+        assertEquals(dst[0], 1);
+
+        // A range inside one page gives nothing back
+        heap.decommit(100, 10);
+        assertEquals(heap.getCommittedBytes(), 32L);
+    }
+
+
+    /**
+     * Test giving back ranges that span many words of pages
+     */
+    public void testDecommitAcrossWords() {
+        LazyPool pool = new LazyPool(1 << 12, false, 4);
+        byte[] src = { 1, 2 };
+        int[] written = { 0, 63, 64, 130, 191, 192, 255 };
+        for (int page : written) {
+            pool.write(page * 16, src, 2);
+        }
+        assertEquals(pool.getCommittedBytes(), 7 * 16L);
+
+        // Pages 63 to 191
+        pool.decommit(63 * 16, 129 * 16);
+        assertEquals(pool.getCommittedBytes(), 3 * 16L);
+        byte[] dst = new byte[2];
+        pool.read(130 * 16, dst, 2);
+        assertEquals(dst[0], 0);
+        pool.read(192 * 16, dst, 2);
+        assertEquals(dst[0], 1);
+
+        // Written again after being given back
+        pool.write(64 * 16, src, 2);
+        pool.shrink(1 << 11);
+        assertEquals(pool.getCommittedBytes(), 2 * 16L);
+        pool.grow(1 << 12);
+        pool.decommit(0, 1 << 12);
+        assertEquals(pool.getCommittedBytes(), 0L);
+    }
+
+
+    /**
+     * Test the memory manager gives back pages of large free blocks
+     */
+    public void testManagerDecommits() {
+        LazyPool pool = new LazyPool(1 << 12, false, 10);
+        MemoryManager memory = new MemoryManager(pool);
+
+        byte[] record = new byte[1024];
+        Handle[] handles = new Handle[4];
+        for (int i = 0; i < 4; i++) {
+            handles[i] = memory.insert(record, 1024);
+        }
+        assertEquals(pool.getCommittedBytes(), 4096L);
+
+        // A free quarter of the pool keeps its page
+        memory.remove(handles[3]);
+        assertEquals(pool.getCommittedBytes(), 4096L);
+
+        // Merging into half the pool gives both pages back
+        memory.remove(handles[2]);
+        assertEquals(pool.getCommittedBytes(), 2048L);
+
+        memory.remove(handles[0]);
+        memory.remove(handles[1]);
+        assertEquals(pool.getCommittedBytes(), 0L);
+
+        memory.insert(record, 1024);
+        memory.clear();
+        assertEquals(pool.getCommittedBytes(), 0L);
+    }
+
+
+    /**
+     * Test the memory manager's growth only commits what it writes
+     */
+    public void testWithMemoryManager() {
+        LazyPool pool = new LazyPool(1 << 12, true, 10);
+        MemoryManager memory = new MemoryManager(pool);
+
+        byte[] record = new byte[3000];
+        record[2999] = 5;
+        memory.insert(record, 3000);
+        assertEquals(pool.getCommittedBytes(), 3072L);
+
+        // Doubling for a small record commits one more page
+        Handle handle = memory.insert(record, 100);
+        assertEquals(memory.getCapacity(), 8192L);
+        assertEquals(handle.getAddress(), 4096L);
+        assertEquals(pool.getCommittedBytes(), 4096L);
+
+        byte[] space = new byte[100];
+        assertTrue(memory.get(space, handle, 100));
+        assertEquals(space[0], 0);
+    }
+
+}
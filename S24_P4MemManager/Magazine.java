@@ -0,0 +1,197 @@
+import java.lang.ref.WeakReference;
+
+/**
+ * This class represents a per-thread cache of free blocks.
+ * A magazine holds a few free blocks for each hot order so that a
+ * thread can insert and remove records of those sizes without
+ * touching the shared free block list.
+ *
+ * Only the owning thread pushes and pops. The memory manager may
+ * take blocks from any magazine when memory runs short, so every
+ * method locks the magazine. The owner never holds this lock while
+ * taking the memory manager's lock.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class Magazine {
+
+    // Lowest and highest cached orders
+    private int low;
+    private int high;
+
+    // Blocks cached per order, blocks[k - low] is a stack
+    private int[][] blocks;
+
+    // Number of blocks cached per order
+    private int[] counts;
+
+    // Work space for moving blocks in and out in batches
+    private int[] scratch;
+
+    // The thread that made the magazine, cleared once it is collected
+    private WeakReference<Thread> owner;
+
+    /**
+     * Constructor for Magazine
+     * The calling thread owns it
+     *
+     * @param low
+     *            The lowest order to cache
+     * @param high
+     *            The highest order to cache
+     * @param size
+     *            The number of blocks cached per order
+     */
+    public Magazine(int low, int high, int size) {
+        this.low = low;
+        this.high = high;
+
+        blocks = new int[high - low + 1][size];
+        counts = new int[high - low + 1];
+        scratch = new int[size];
+        owner = new WeakReference<Thread>(Thread.currentThread());
+    }
+
+
+    /**
+     * Return true if the owning thread has finished
+     * Nothing will push or pop again, so the magazine can be dropped
+     * once it is drained
+     *
+     * @return true if the owner is gone
+     */
+    public boolean isOrphaned() {
+        Thread thread = owner.get();
+        return thread == null || !thread.isAlive();
+    }
+
+
+    /**
+     * Return true if an order is cached
+     *
+     * @param k
+     *            The order
+     * @return true if hot
+     */
+    public boolean isHot(int k) {
+        return k >= low && k <= high;
+    }
+
+
+    /**
+     * Take a cached block
+     *
+     * @param k
+     *            The order
+     * @return the address or -1 if none is cached
+     */
+    public synchronized int pop(int k) {
+        int i = k - low;
+        if (counts[i] == 0) {
+            return -1;
+        }
+
+        counts[i]--;
+        return blocks[i][counts[i]];
+    }
+
+
+    /**
+     * Cache a free block
+     *
+     * @param k
+     *            The order
+     * @param position
+     *            The address of the block
+     * @return false if the magazine is full for this order
+     */
+    public synchronized boolean push(int k, int position) {
+        int i = k - low;
+        if (counts[i] == blocks[i].length) {
+            return false;
+        }
+
+        blocks[i][counts[i]] = position;
+        counts[i]++;
+        return true;
+    }
+
+
+    /**
+     * Cache several free blocks, given lowest address first
+     * They are stacked so the lowest address pops first
+     * The caller makes sure they fit
+     *
+     * @param k
+     *            The order
+     * @param in
+     *            The addresses of the blocks
+     * @param from
+     *            The first index of in to take
+     * @param to
+     *            One past the last index of in to take
+     */
+    public synchronized void fill(int k, int[] in, int from, int to) {
+        int i = k - low;
+        for (int j = to - 1; j >= from; j--) {
+            blocks[i][counts[i]] = in[j];
+            counts[i]++;
+        }
+    }
+
+
+    /**
+     * Move cached blocks out of the magazine
+     *
+     * @param k
+     *            The order
+     * @param out
+     *            Where to put the addresses
+     * @param max
+     *            The most blocks to move
+     * @return the number of blocks moved
+     */
+    public synchronized int take(int k, int[] out, int max) {
+        int i = k - low;
+        int count = Math.min(max, counts[i]);
+
+        counts[i] -= count;
+        System.arraycopy(blocks[i], counts[i], out, 0, count);
+        return count;
+    }
+
+
+    /**
+     * Return the number of cached blocks of an order
+     *
+     * @param k
+     *            The order
+     * @return the number of blocks
+     */
+    public synchronized int count(int k) {
+        return counts[k - low];
+    }
+
+
+    /**
+     * Return the number of blocks cached per order
+     *
+     * @return the size
+     */
+    public int getSize() {
+        return scratch.length;
+    }
+
+
+    /**
+     * Return the work space used by the owning thread
+     *
+     * @return the scratch array
+     */
+    public int[] getScratch() {
+        return scratch;
+    }
+
+}
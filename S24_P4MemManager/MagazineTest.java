@@ -0,0 +1,75 @@
+import student.TestCase;
+
+/**
+ * Test the methods of the Magazine class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class MagazineTest extends TestCase {
+
+    private Magazine magazine;
+
+    /**
+     * Set up the test object
+     */
+    public void setUp() {
+        magazine = new Magazine(6, 8, 4);
+    }
+
+
+    /**
+     * Test which orders are cached
+     */
+    public void testIsHot() {
+        assertFalse(magazine.isHot(5));
+        assertTrue(magazine.isHot(6));
+        assertTrue(magazine.isHot(8));
+        assertFalse(magazine.isHot(9));
+        assertEquals(magazine.getSize(), 4);
+        assertEquals(magazine.getScratch().length, 4);
+    }
+
+
+    /**
+     * Test push and pop act as a stack with a limit
+     */
+    public void testPushPop() {
+        assertEquals(magazine.pop(7), -1);
+
+        assertTrue(magazine.push(7, 128));
+        assertTrue(magazine.push(7, 256));
+        assertTrue(magazine.push(7, 384));
+        assertTrue(magazine.push(7, 512));
+        assertFalse(magazine.push(7, 640));
+        assertEquals(magazine.count(7), 4);
+        assertEquals(magazine.count(6), 0);
+
+        assertEquals(magazine.pop(7), 512);
+        assertEquals(magazine.pop(7), 384);
+        assertEquals(magazine.count(7), 2);
+    }
+
+
+    /**
+     * Test moving blocks in and out in batches
+     */
+    public void testFillTake() {
+        int[] in = { 0, 64, 128, 192 };
+        magazine.fill(6, in, 1, 4);
+        assertEquals(magazine.count(6), 3);
+        assertEquals(magazine.pop(6), 64);
+        magazine.push(6, 64);
+
+        int[] out = new int[4];
+        assertEquals(magazine.take(6, out, 2), 2);
+        assertEquals(out[0], 128);
+        assertEquals(out[1], 64);
+
+        assertEquals(magazine.take(6, out, 4), 1);
+        assertEquals(out[0], 192);
+        assertEquals(magazine.take(6, out, 4), 0);
+    }
+
+}
@@ -0,0 +1,384 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class represents a memory pool mapped onto a file.
+ * Records written to the pool survive after the program exits.
+ *
+ * The file starts with a small header followed by the pool bytes.
+ * After the pool comes an index record, which SeminarDB uses to
+ * reopen the database without replaying the command file. The
+ * header stores the capacity and where the index is. A new index
+ * is written beside the old one and only then named in the header,
+ * so a crash leaves one whole index or the other. The index moves
+ * past the end of the pool before the pool grows over it.
+ *
+ * The pool is one mapping, so it stays under 2 GB.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class MappedPool implements MemoryPool {
+
+    // Size of the header region at the start of the file
+    public static final int HEADER_SIZE = 64;
+
+    // Marks a file written by this class
+    private static final int MAGIC = 0x53454D32;
+
+    // Byte offsets of the header fields
+    private static final int MAGIC_AT = 0;
+    private static final int INDEX_LENGTH_AT = 4;
+    private static final int CAPACITY_AT = 8;
+    private static final int INDEX_OFFSET_AT = 16;
+
+    // The open file
+    private RandomAccessFile file;
+
+    // The channel used to map the file
+    private FileChannel channel;
+
+    // The mapped header region
+    private MappedByteBuffer header;
+
+    // The mapped pool region
+    // Replaced on grow, so readers need no lock
+    private volatile MappedByteBuffer data;
+
+    // True if the file already held a pool when opened
+    private boolean reopened;
+
+    /**
+     * Constructor for MappedPool
+     * Opens the pool in the file, or creates a new one
+     *
+     * @param path
+     *            The file holding the pool
+     * @param capacity
+     *            The capacity to use for a new pool
+     * @throws IOException
+     */
+    public MappedPool(File path, int capacity) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+        long saved = capacity;
+        reopened = header.getInt(MAGIC_AT) == MAGIC;
+        if (reopened) {
+            // Keep the capacity the pool had when it was saved
+            saved = header.getLong(CAPACITY_AT);
+        }
+        else {
+            header.putInt(MAGIC_AT, MAGIC);
+            header.putLong(CAPACITY_AT, saved);
+            clearIndex();
+        }
+
+        data = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE,
+            saved);
+    }
+
+
+    /**
+     * Copy bytes from src into the pool
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param src
+     *            The array to copy from
+     * @param length
+     *            The number of bytes to copy
+     */
+    @Override
+    public void write(long address, byte[] src, int length) {
+        // Work on a duplicate so the shared position is left alone
+        ByteBuffer target = data.duplicate();
+        target.position((int)address);
+        target.put(src, 0, length);
+    }
+
+
+    /**
+     * Copy bytes from the pool into dst
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param dst
+     *            The array to copy into
+     * @param length
+     *            The number of bytes to copy
+     */
+    @Override
+    public void read(long address, byte[] dst, int length) {
+        ByteBuffer source = data.duplicate();
+        source.position((int)address);
+        source.get(dst, 0, length);
+    }
+
+
+    /**
+     * Read a four byte int from the pool
+     *
+     * @param address
+     *            The byte address, a multiple of four
+     * @return the int
+     */
+    @Override
+    public int getInt(long address) {
+        return data.getInt((int)address);
+    }
+
+
+    /**
+     * Write a four byte int into the pool
+     *
+     * @param address
+     *            The byte address, a multiple of four
+     * @param value
+     *            The int to write
+     */
+    @Override
+    public void putInt(long address, int value) {
+        data.putInt((int)address, value);
+    }
+
+
+    /**
+     * Return a read-only view of bytes in the pool
+     * The view is a slice of the mapping, nothing is copied
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param length
+     *            The number of bytes to view
+     * @return a read-only buffer from position 0 to length
+     */
+    @Override
+    public ByteBuffer view(long address, int length) {
+        ByteBuffer view = data.asReadOnlyBuffer();
+        view.limit((int)address + length);
+        view.position((int)address);
+        return view.slice();
+    }
+
+
+    /**
+     * Grow the pool by mapping a larger part of the file
+     * The old contents are already in the file, nothing is copied
+     *
+     * @param newCapacity
+     *            The new capacity in bytes, under 2 GB
+     */
+    @Override
+    public void grow(long newCapacity) {
+        if (newCapacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException(
+                "Mapped pool cannot grow past 2 GB");
+        }
+
+        try {
+            // The index must not end up inside the pool
+            long offset = header.getLong(INDEX_OFFSET_AT);
+            if (offset >= 0 && offset < HEADER_SIZE + newCapacity) {
+                moveIndex(HEADER_SIZE + newCapacity);
+            }
+
+            data = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE,
+                newCapacity);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not grow mapped pool", e);
+        }
+        header.putLong(CAPACITY_AT, newCapacity);
+    }
+
+
+    /**
+     * Shrink the pool by mapping a smaller part of the file
+     * The file is cut to the new size
+     *
+     * @param newCapacity
+     *            The new capacity in bytes
+     */
+    @Override
+    public void shrink(long newCapacity) {
+        try {
+            // Bring the index down to the new end of the pool
+            long end = HEADER_SIZE + newCapacity;
+            if (header.getLong(INDEX_OFFSET_AT) >= 0) {
+                moveIndex(end);
+                end += header.getInt(INDEX_LENGTH_AT);
+            }
+
+            data = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE,
+                newCapacity);
+            channel.truncate(end);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not shrink mapped pool",
+                e);
+        }
+        header.putLong(CAPACITY_AT, newCapacity);
+    }
+
+
+    /**
+     * Return the capacity
+     *
+     * @return capacity in bytes
+     */
+    @Override
+    public long getCapacity() {
+        return data.capacity();
+    }
+
+
+    /**
+     * Return true if the file already held a pool when opened
+     *
+     * @return true if reopened
+     */
+    public boolean isReopened() {
+        return reopened;
+    }
+
+
+    /**
+     * Return the saved index record
+     *
+     * @return the index bytes, null if there is no index
+     * @throws IOException
+     */
+    public byte[] loadIndex() throws IOException {
+        long offset = header.getLong(INDEX_OFFSET_AT);
+        if (offset < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[header.getInt(INDEX_LENGTH_AT)];
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        while (in.hasRemaining()) {
+            if (channel.read(in, offset + in.position()) < 0) {
+                throw new IOException("Saved index is cut short");
+            }
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Save an index record after the pool
+     * The pool and the new index are written out before the header
+     * names the new index, so the old one is good until then
+     *
+     * @param bytes
+     *            The index bytes
+     * @throws IOException
+     */
+    public void saveIndex(byte[] bytes) throws IOException {
+        long base = HEADER_SIZE + getCapacity();
+        long offset = header.getLong(INDEX_OFFSET_AT);
+        long length = header.getInt(INDEX_LENGTH_AT);
+
+        // Keep clear of the old index
+        long target = base;
+        if (offset >= 0 && base + bytes.length > offset) {
+            target = offset + length;
+        }
+
+        writeAt(target, bytes);
+        data.force();
+        channel.force(false);
+        nameIndex(target, bytes.length);
+    }
+
+
+    /**
+     * Forget the saved index, the pool then holds no records
+     */
+    public void clearIndex() {
+        nameIndex(-1, -1);
+    }
+
+
+    /**
+     * Copy the index to a new offset and name it in the header
+     *
+     * @param target
+     *            The new offset in the file
+     * @throws IOException
+     */
+    private void moveIndex(long target) throws IOException {
+        byte[] bytes = loadIndex();
+        long offset = header.getLong(INDEX_OFFSET_AT);
+        if (target < offset + bytes.length && offset < target
+            + bytes.length) {
+            // Step past the old copy first so one copy is always whole
+            moveIndex(offset + bytes.length);
+        }
+
+        writeAt(target, bytes);
+        channel.force(false);
+        nameIndex(target, bytes.length);
+    }
+
+
+    /**
+     * Write bytes into the file at an offset
+     *
+     * @param offset
+     *            The offset in the file
+     * @param bytes
+     *            The bytes to write
+     * @throws IOException
+     */
+    private void writeAt(long offset, byte[] bytes) throws IOException {
+        ByteBuffer out = ByteBuffer.wrap(bytes);
+        while (out.hasRemaining()) {
+            channel.write(out, offset + out.position());
+        }
+    }
+
+
+    /**
+     * Point the header at an index and write the header out
+     *
+     * @param offset
+     *            The offset of the index in the file, -1 for none
+     * @param length
+     *            The length of the index
+     */
+    private void nameIndex(long offset, int length) {
+        header.putInt(INDEX_LENGTH_AT, length);
+        header.putLong(INDEX_OFFSET_AT, offset);
+        header.force();
+    }
+
+
+    /**
+     * Write all changes out to the file
+     */
+    public void force() {
+        data.force();
+        header.force();
+    }
+
+
+    /**
+     * Write all changes and close the file
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        force();
+        channel.close();
+        file.close();
+    }
+
+}
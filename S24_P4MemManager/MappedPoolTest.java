@@ -0,0 +1,169 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import student.TestCase;
+
+/**
+ * Test the methods of the MappedPool class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class MappedPoolTest extends TestCase {
+
+    private File file;
+
+    /**
+     * Set up a fresh file for each test
+     *
+     * @throws IOException
+     */
+    public void setUp() throws IOException {
+        file = File.createTempFile("mappedpool", ".bin");
+        file.delete();
+    }
+
+
+    /**
+     * Remove the file after each test
+     */
+    public void tearDown() {
+        file.delete();
+    }
+
+
+    /**
+     * Test a new pool in a new file
+     *
+     * @throws IOException
+     */
+    public void testNewPool() throws IOException {
+        MappedPool pool = new MappedPool(file, 64);
+
+        assertFalse(pool.isReopened());
+        assertEquals(pool.getCapacity(), 64);
+        assertNull(pool.loadIndex());
+
+        byte[] src = { 4, 5, 6 };
+        pool.write(61, src, 3);
+
+        byte[] dst = new byte[3];
+        pool.read(61, dst, 3);
+        assertEquals(dst[0], 4);
+        assertEquals(dst[2], 6);
+
+        pool.close();
+    }
+
+
+    /**
+     * Test contents, capacity and index survive a reopen
+     *
+     * @throws IOException
+     */
+    public void testReopen() throws IOException {
+        MappedPool pool = new MappedPool(file, 64);
+
+        byte[] src = { 1, 2, 3 };
+        pool.write(10, src, 3);
+        pool.grow(128);
+        pool.write(100, src, 3);
+        pool.saveIndex(new byte[] { 7, 8, 9 });
+        pool.close();
+
+        // Capacity given here is ignored for an existing pool
+        pool = new MappedPool(file, 64);
+        assertTrue(pool.isReopened());
+        assertEquals(pool.getCapacity(), 128);
+        assertEquals(pool.loadIndex()[2], 9);
+
+        byte[] dst = new byte[3];
+        pool.read(10, dst, 3);
+        assertEquals(dst[1], 2);
+        pool.read(100, dst, 3);
+        assertEquals(dst[2], 3);
+
+        pool.close();
+    }
+
+
+    /**
+     * Test shrinking cuts the file and is kept after a reopen
+     *
+     * @throws IOException
+     */
+    public void testShrink() throws IOException {
+        MappedPool pool = new MappedPool(file, 64);
+        pool.grow(128);
+        pool.shrink(64);
+        assertEquals(pool.getCapacity(), 64);
+        pool.close();
+
+        assertEquals(file.length(), MappedPool.HEADER_SIZE + 64);
+
+        pool = new MappedPool(file, 16);
+        assertEquals(pool.getCapacity(), 64);
+        pool.close();
+    }
+
+
+    /**
+     * Test the index stays whole past the pool as it grows, shrinks
+     * and is replaced
+     *
+     * @throws IOException
+     */
+    public void testIndex() throws IOException {
+        MappedPool pool = new MappedPool(file, 64);
+        byte[] index = new byte[40];
+        for (int i = 0; i < index.length; i++) {
+            index[i] = (byte)i;
+        }
+
+        // Written after the pool, where records never go
+        pool.saveIndex(index);
+        assertEquals(file.length(), MappedPool.HEADER_SIZE + 64 + 40);
+        byte[] zeros = new byte[64];
+        pool.write(0, zeros, 64);
+        assertEquals(pool.loadIndex()[39], 39);
+
+        // A new index goes beside the old one
+        pool.saveIndex(new byte[] { 1, 2 });
+        assertEquals(pool.loadIndex().length, 2);
+        pool.saveIndex(index);
+
+        // Moved ahead of the growing pool
+        pool.grow(256);
+        pool.write(0, new byte[256], 256);
+        assertEquals(pool.loadIndex()[39], 39);
+
+        pool.shrink(32);
+        assertEquals(file.length(), MappedPool.HEADER_SIZE + 32 + 40);
+        assertEquals(pool.loadIndex()[39], 39);
+
+        pool.clearIndex();
+        assertNull(pool.loadIndex());
+        pool.close();
+    }
+
+
+    /**
+     * Test a view is a read-only slice of the mapping
+     *
+     * @throws IOException
+     */
+    public void testView() throws IOException {
+        MappedPool pool = new MappedPool(file, 64);
+
+        byte[] src = { 4, 5, 6 };
+        pool.write(20, src, 3);
+
+        ByteBuffer view = pool.view(20, 3);
+        assertTrue(view.isReadOnly());
+        assertEquals(view.remaining(), 3);
+        assertEquals(view.get(1), 5);
+
+        pool.close();
+    }
+}
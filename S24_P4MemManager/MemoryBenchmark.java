@@ -0,0 +1,168 @@
+import java.util.Random;
+
+/**
+ * Throughput benchmark for the memory manager.
+ * Each thread keeps a set of live records and repeatedly reads one,
+ * frees it and inserts a new one in its place. The benchmark runs
+ * with 1, 2, 4, ... threads up to the number of cores.
+ *
+ * Every thread count is run without and with per-thread magazines.
+ * Then the buddy memory manager, the buddy tree and the TLSF
+ * allocator are compared on one thread, for speed and for the pool
+ * space a set of live records takes.
+ *
+ * Run with: java MemoryBenchmark [seconds per run]
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class MemoryBenchmark {
+
+    // Live records kept by each thread
+    private static final int LIVE = 64;
+
+    /**
+     * @param args
+     *            Optional seconds per run
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws InterruptedException {
+        double seconds = 1;
+        if (args.length > 0) {
+            seconds = Double.parseDouble(args[0]);
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            long ops = run(threads, (long)(seconds * 1e9), false);
+            long cached = run(threads, (long)(seconds * 1e9), true);
+            String out = String.format(
+                "threads: %d, ops/s: %d, with magazines: %d", threads,
+                (long)(ops / seconds), (long)(cached / seconds));
+            System.out.println(out);
+        }
+
+        compare("buddy", new MemoryManager(1 << 20), (long)(seconds * 1e9));
+        compare("tree", new TreeBuddyAllocator(1 << 20), (long)(seconds
+            * 1e9));
+        compare("tlsf", new TlsfAllocator(1 << 20), (long)(seconds * 1e9));
+    }
+
+
+    /**
+     * Run the workload on one thread and report the space used
+     *
+     * @param name
+     *            The name to print
+     * @param memory
+     *            The allocator to test
+     * @param nanos
+     *            How long to run
+     */
+    public static void compare(String name, Allocator memory, long nanos) {
+        long ops = work(memory, 0, System.nanoTime() + nanos);
+
+        // Space taken by a fresh set of live records
+        Random random = new Random(1);
+        byte[] record = new byte[256];
+        Handle[] live = new Handle[LIVE * 64];
+        long requested = 0;
+        for (int i = 0; i < live.length; i++) {
+            int size = 64 + random.nextInt(192);
+            live[i] = memory.insert(record, size);
+            requested += size;
+        }
+        long used = memory.getCapacity() - memory.numFreeBytes();
+
+        String out = String.format(
+            "%s: ops/s: %d, %d bytes used for %d bytes of records", name,
+            (long)(ops / (nanos / 1e9)), used, requested);
+        System.out.println(out);
+
+        for (int i = 0; i < live.length; i++) {
+            memory.remove(live[i]);
+        }
+    }
+
+
+    /**
+     * Run the workload on some threads
+     *
+     * @param threadCount
+     *            The number of threads
+     * @param nanos
+     *            How long to run
+     * @param magazines
+     *            True to give each thread a magazine
+     * @return the total number of operations done
+     * @throws InterruptedException
+     */
+    public static long run(int threadCount, long nanos, boolean magazines)
+        throws InterruptedException {
+        MemoryManager memory = new MemoryManager(1 << 20);
+        if (magazines) {
+            memory.enableMagazines(6, 8, 32);
+        }
+        long[] counts = new long[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        long end = System.nanoTime() + nanos;
+
+        for (int t = 0; t < threadCount; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                counts[id] = work(memory, id, end);
+            });
+            threads[t].start();
+        }
+
+        long total = 0;
+        for (int t = 0; t < threadCount; t++) {
+            threads[t].join();
+            total += counts[t];
+        }
+        return total;
+    }
+
+
+    /**
+     * The work done by one thread
+     *
+     * @param memory
+     *            The shared allocator
+     * @param id
+     *            The thread number
+     * @param end
+     *            When to stop, from System.nanoTime
+     * @return the number of operations done
+     */
+    private static long work(Allocator memory, int id, long end) {
+        Random random = new Random(id);
+        byte[] record = new byte[256];
+        Handle[] live = new Handle[LIVE];
+
+        for (int i = 0; i < LIVE; i++) {
+            live[i] = memory.insert(record, 64 + random.nextInt(192));
+        }
+
+        long ops = 0;
+        while (System.nanoTime() < end) {
+            // Check the clock every so often, not every operation
+            for (int i = 0; i < 256; i++) {
+                int slot = random.nextInt(LIVE);
+                Handle handle = live[slot];
+
+                memory.get(record, handle, handle.getLength());
+                memory.remove(handle);
+                live[slot] = memory.insert(record, 64 + random.nextInt(192));
+            }
+            ops += 256 * 3;
+        }
+
+        for (int i = 0; i < LIVE; i++) {
+            memory.remove(live[i]);
+        }
+        return ops;
+    }
+
+}
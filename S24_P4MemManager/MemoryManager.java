@@ -1,137 +1,1498 @@
-
-import java.lang.Math;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 
 /**
  * This class represents a memory manager.
  * It maintains a free block list using the buddy method.
  * This leads to internal fragmentation, but efficient searching.
+ * The free block list is kept in primitive bitmaps, so apart from
+ * the returned Handle, insert and remove do not allocate.
+ * 
+ * Threads may share a memory manager. Inserts and removes that only
+ * split or merge blocks share the manager and lock just the orders
+ * they touch, always from the smallest order up, so threads working
+ * on different block sizes do not wait for each other. Growing,
+ * shrinking, batches, slabs, moves and stats hold the manager alone.
+ * Record bytes are copied outside every lock and get never locks.
+ * A reader must receive its Handle from the thread that inserted it
+ * through some synchronization, as with any shared object.
+ * 
+ * Positions in the free block list count units of 2^unit bytes.
+ * With the default unit of one byte the pool stays under 2 GB, a
+ * larger unit lets int positions cover a pool of many GB at the cost
+ * of rounding small records up to one unit. Handles hold byte
+ * addresses either way.
  * 
  * @author Richard Martinez
  * 
  * @version 2024-05-01
  */
-public class MemoryManager {
+public class MemoryManager implements Allocator {
+
+    // The capacity of the memory array, in units
+    private int capacity;
+
+    // 2^unit = bytes per position in the free block list
+    private int unit;
+
+    // 2^N = capacity
+    private int n;
+
+    // The actual memory pool
+    private MemoryPool memory;
+
+    // The free block list
+    private FreeBlockList freeblocklist;
+
+    // Number of free units
+    private AtomicInteger freebytes;
+
+    // The pool never shrinks below its initial capacity
+    private int minCapacity;
+
+    // How far the pool grows when it is full
+    private GrowthPolicy growth = GrowthPolicy.DOUBLE;
+
+    // Auto shrink when use fits under this fraction of half the pool
+    // Zero turns auto shrink off
+    private volatile double shrinkWatermark;
+
+    // Per-thread caches of free blocks, null when turned off
+    private volatile ThreadLocal<Magazine> magazines;
+
+    // Every magazine of a live thread, so they can be drained
+    private ArrayList<Magazine> allMagazines;
+
+    // Shape of new magazines
+    private int magazineLow;
+    private int magazineHigh;
+    private int magazineSize;
+
+    // Work space for draining, used under the exclusive lock
+    private int[] drainScratch;
+
+    // Packs small records into slabs, null when turned off
+    private volatile SlabAllocator slabs;
+
+    // Work space for moving records, used under the exclusive lock
+    private byte[] moveScratch;
+
+    // Blocks not on the free block list, per blockN
+    private AtomicIntegerArray usedBlocks = new AtomicIntegerArray(32);
+
+    // Work counters, splits and merges also happen in shared mode
+    private LongAdder splits = new LongAdder();
+    private LongAdder merges = new LongAdder();
+    private int resizes;
+    private int shrinks;
+    private long bytesCopied;
+
+    // Samples allocation work, null when turned off
+    private volatile AllocationTracer tracer;
+
+    // Keeps large records outside the pool, null when turned off
+    private volatile LargeObjectStore large;
+
+    // Record lengths and the space they take
+    // Counted outside the lock, magazines serve inserts without it
+    private LongAdder requestedBytes = new LongAdder();
+    private LongAdder allocatedBytes = new LongAdder();
+
+    // Shared by splits and merges, held alone by everything else
+    private ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+    private Lock shared = structure.readLock();
+    private Lock exclusive = structure.writeLock();
+
+    // One lock per order of the free block list, taken in shared mode
+    private ReentrantLock[] orderLocks = new ReentrantLock[32];
+
+    /**
+     * Constructor for MemoryManager
+     * The pool is kept on the heap
+     * 
+     * @param capacity
+     *            The initial capacity must be a power of two
+     */
+    public MemoryManager(int capacity) {
+        this(new BufferPool(capacity, false));
+    }
+
+
+    /**
+     * Constructor for MemoryManager using the given pool
+     * 
+     * @param pool
+     *            The memory pool, capacity must be a power of two
+     */
+    public MemoryManager(MemoryPool pool) {
+        this(pool, 0);
+    }
+
+
+    /**
+     * Constructor for MemoryManager counting the pool in larger units
+     * 
+     * @param pool
+     *            The memory pool, capacity must be a power of two
+     * @param unit
+     *            2^unit bytes per position, at most 2^30 positions
+     * @throws IllegalArgumentException
+     *             if the pool is not a power of two units it can hold
+     */
+    public MemoryManager(MemoryPool pool, int unit) {
+        // Positions are ints, so at most 2^30 units
+        if (unit < 0 || pool.getCapacity() >> unit > 1 << 30) {
+            throw new IllegalArgumentException(
+                "Memory pool needs a larger unit");
+        }
+        if (unit >= 63 || pool.getCapacity() < 1L << unit) {
+            throw new IllegalArgumentException(
+                "Memory pool needs a smaller unit");
+        }
+        if (Long.bitCount(pool.getCapacity() >> unit) != 1) {
+            throw new IllegalArgumentException(
+                "Memory pool must be a power of two units");
+        }
+
+        // Save capacity
+        this.unit = unit;
+        this.capacity = (int)(pool.getCapacity() >> unit);
+        this.n = nextPow2(capacity);
+        this.freebytes = new AtomicInteger(capacity);
+        this.minCapacity = capacity;
+
+        for (int k = 0; k < orderLocks.length; k++) {
+            orderLocks[k] = new ReentrantLock();
+        }
+
+        // Init memory pool
+        memory = pool;
+
+        // Init free block list
+        freeblocklist = new FreeBlockList(capacity);
+
+        // Place one block at the end
+        // Free block = whole initial array
+        freeblocklist.push(this.n, 0);
+    }
+
+
+    /**
+     * Insert the space array into memory
+     * 
+     * @param space
+     *            The byte array to enter
+     * @param size
+     *            The size of the byte array
+     * @return a Handle representing where it was placed in memory
+     */
+    @Override
+    public Handle insert(byte[] space, int size) {
+        // Handle returned: start address, actual length of record
+        // Assume error checking, just do the insert
+
+        LargeObjectStore store = large;
+        if (store != null && store.fits(size)) {
+            return insertLarge(store, space, size);
+        }
+
+        // Claim a block, then copy outside the lock
+        int blockN = nextPow2(units(size));
+        long taken = bytes(raiseToPow2(blockN));
+        int position = -1;
+
+        if (slabs != null && slabs.fits(size)) {
+            position = allocateSmall(size);
+            taken = slabs.slotSize(size);
+        }
+        else if (magazines != null && blockN >= magazineLow
+            && blockN <= magazineHigh) {
+            position = takeCached(blockN);
+        }
+        if (position < 0) {
+            AllocationTracer t = tracer;
+            if (t != null && t.sample()) {
+                position = allocateTraced(t, size, blockN);
+            }
+            else {
+                position = allocate(blockN);
+            }
+        }
+
+        // Copy space array into memory pool
+        memory.write(bytes(position), space, size);
+        count(size, taken);
+
+        // Build and return the handle
+        Handle handle = new Handle(bytes(position), size);
+        return handle;
+    }
+
+
+    /**
+     * Insert many records at once
+     * The pool grows once for the whole batch and the blocks are
+     * carved largest first, so each split feeds the next block
+     * 
+     * @param records
+     *            The byte arrays to enter
+     * @param sizes
+     *            The size of each byte array
+     * @return Handles in the same order as the records
+     */
+    public Handle[] insertAll(byte[][] records, int[] sizes) {
+        LargeObjectStore store = large;
+        if (store != null) {
+            for (int size : sizes) {
+                if (store.fits(size)) {
+                    return insertSplit(store, records, sizes);
+                }
+            }
+        }
+
+        // Claim every block, then copy outside the lock
+        int[] positions = allocateBatch(sizes);
+
+        Handle[] handles = new Handle[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            memory.write(bytes(positions[i]), records[i], sizes[i]);
+            handles[i] = new Handle(bytes(positions[i]), sizes[i]);
+
+            if (slabs != null && slabs.fits(sizes[i])) {
+                count(sizes[i], slabs.slotSize(sizes[i]));
+            }
+            else {
+                count(sizes[i], bytes(raiseToPow2(nextPow2(units(
+                    sizes[i])))));
+            }
+        }
+        return handles;
+    }
+
+
+    /**
+     * Insert a batch holding large records
+     * Large records go to the store one at a time, the rest are
+     * inserted as one batch
+     * 
+     * @param store
+     *            The large object store
+     * @param records
+     *            The byte arrays to enter
+     * @param sizes
+     *            The size of each byte array
+     * @return Handles in the same order as the records
+     */
+    private Handle[] insertSplit(LargeObjectStore store, byte[][] records,
+        int[] sizes) {
+        Handle[] handles = new Handle[sizes.length];
+
+        // Gather the small records
+        int small = 0;
+        for (int size : sizes) {
+            if (!store.fits(size)) {
+                small++;
+            }
+        }
+        byte[][] smallRecords = new byte[small][];
+        int[] smallSizes = new int[small];
+        int j = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            if (store.fits(sizes[i])) {
+                handles[i] = insertLarge(store, records[i], sizes[i]);
+            }
+            else {
+                smallRecords[j] = records[i];
+                smallSizes[j++] = sizes[i];
+            }
+        }
+
+        // Put the small handles back in order
+        Handle[] smallHandles = insertAll(smallRecords, smallSizes);
+        j = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            if (handles[i] == null) {
+                handles[i] = smallHandles[j++];
+            }
+        }
+        return handles;
+    }
+
+
+    /**
+     * Insert a record into the large object store
+     * 
+     * @param store
+     *            The large object store
+     * @param space
+     *            The byte array to enter
+     * @param size
+     *            The size of the byte array
+     * @return a Handle with the LARGE bit and the record's slot
+     */
+    private Handle insertLarge(LargeObjectStore store, byte[] space,
+        int size) {
+        int slot = store.allocate(size);
+        store.write(slot, space, size);
+        count(size, size);
+        return new Handle(Handle.LARGE | slot, size);
+    }
+
+
+    /**
+     * Claim blocks for a batch of records
+     * 
+     * @param sizes
+     *            The size of each record
+     * @return the address of each record, in input order
+     */
+    private int[] allocateBatch(int[] sizes) {
+        exclusive.lock();
+        try {
+            return allocateSorted(sizes);
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Claim blocks for a batch of records, largest first
+     * The caller holds the exclusive lock
+     * 
+     * @param sizes
+     *            The size of each record
+     * @return the address of each record, in input order
+     */
+    private int[] allocateSorted(int[] sizes) {
+        int[] positions = new int[sizes.length];
+
+        // Count blocks per blockN and the bytes they need
+        int[] starts = new int[33];
+        int demand = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            int blockN = nextPow2(units(sizes[i]));
+            starts[blockN]++;
+            if (slabs == null || !slabs.fits(sizes[i])) {
+                demand += raiseToPow2(blockN);
+            }
+        }
+
+        // Grow once to cover the whole demand
+        if (demand > freebytes.get() && allMagazines != null) {
+            drainMagazines();
+        }
+        long used = capacity - freebytes.get() + (long)demand;
+        if (used > capacity) {
+            growTo(Math.max(growth.capacityFor(used), (long)capacity
+                * growth.getFactor()));
+        }
+
+        // Sort record indexes by blockN, largest first
+        int next = 0;
+        for (int k = 32; k >= 0; k--) {
+            int count = starts[k];
+            starts[k] = next;
+            next += count;
+        }
+        int[] order = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            order[starts[nextPow2(units(sizes[i]))]++] = i;
+        }
+
+        // Carve in one pass
+        // Fragmentation can still force a resize in allocate
+        for (int i : order) {
+            if (slabs != null && slabs.fits(sizes[i])) {
+                positions[i] = allocateSmall(sizes[i]);
+            }
+            else {
+                positions[i] = allocate(nextPow2(units(sizes[i])));
+            }
+        }
+        return positions;
+    }
+
+
+    /**
+     * Take the lowest free block of a blockN out of the free block
+     * list, resizing if needed
+     * Must not be called in shared mode, a resize needs the
+     * exclusive lock
+     * 
+     * @param blockN
+     *            The blockN to take
+     * @return the starting address of the block
+     */
+    private int allocate(int blockN) {
+        int position;
+        shared.lock();
+        try {
+            position = take(blockN);
+        }
+        finally {
+            shared.unlock();
+        }
+        if (position >= 0) {
+            return position;
+        }
+
+        // Out of room, make some alone
+        exclusive.lock();
+        try {
+            // Memory is tight, take back blocks cached by threads first
+            if (!canInsert(blockN) && allMagazines != null) {
+                drainMagazines();
+            }
+
+            // Check size and resize
+            // If can't insert -> resize
+            // Keep resizing until done
+            while (!canInsert(blockN)) {
+                resize();
+            }
+
+            // Here, we are guaranteed enough space
+            return take(blockN);
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Take the lowest free block of a blockN, splitting a larger one
+     * if needed, without resizing
+     * The caller is in shared or exclusive mode. Orders blockN up to
+     * the one split are locked, smallest first.
+     * 
+     * @param blockN
+     *            The blockN to take
+     * @return the starting address of the block, or -1 if no free
+     *         block is large enough
+     */
+    private int take(int blockN) {
+        while (true) {
+            int top = freeblocklist.smallestFrom(blockN);
+            if (top < 0) {
+                return -1;
+            }
+
+            for (int k = blockN; k <= top; k++) {
+                orderLocks[k].lock();
+            }
+            try {
+                // Another thread may have taken it, look again locked
+                int i = blockN;
+                while (i <= top && freeblocklist.isEmpty(i)) {
+                    i++;
+                }
+                if (i > top) {
+                    continue;
+                }
+
+                // Keep the lowest part, upper halves go down a level
+                int position = freeblocklist.pop(i);
+                while (i > blockN) {
+                    i--;
+                    freeblocklist.push(i, position + raiseToPow2(i));
+                    splits.increment();
+                }
+
+                freebytes.addAndGet(-raiseToPow2(blockN));
+                usedBlocks.incrementAndGet(blockN);
+                return position;
+            }
+            finally {
+                for (int k = top; k >= blockN; k--) {
+                    orderLocks[k].unlock();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Frees the specified block in memory
+     * 
+     * @param handle
+     *            The handle representing the block
+     */
+    @Override
+    public void remove(Handle handle) {
+        // Assume error checking, just do the remove
+
+        if (handle.isLarge()) {
+            int taken = large.release(slotOf(handle));
+            count(-handle.getLength(), -taken);
+            return;
+        }
+
+        // Give the block back to FBL
+        int position = position(handle);
+        int length = handle.getLength();
+        int blockN = nextPow2(units(length));
+
+        if (slabs != null && releaseSmall(position)) {
+            count(-length, -slabs.slotSize(length));
+            return;
+        }
+        count(-length, -bytes(raiseToPow2(blockN)));
+
+        if (magazines != null && blockN >= magazineLow
+            && blockN <= magazineHigh) {
+            putCached(blockN, position);
+            return;
+        }
+
+        AllocationTracer t = tracer;
+        if (t != null && t.sample()) {
+            releaseTraced(t, length, position, blockN);
+        }
+        else {
+            release(position, blockN);
+        }
+    }
+
+
+    /**
+     * Allocate a block and record the work it took
+     * 
+     * @param t
+     *            The tracer to record into
+     * @param size
+     *            The record length
+     * @param blockN
+     *            The blockN to take
+     * @return the starting address of the block
+     */
+    private int allocateTraced(AllocationTracer t, int size, int blockN) {
+        exclusive.lock();
+        try {
+            long splitsBefore = splits.sum();
+            int resizesBefore = resizes;
+
+            int position = allocate(blockN);
+            t.record(AllocationTracer.INSERT, size, blockN + unit,
+                (int)(splits.sum() - splitsBefore), resizes - resizesBefore);
+            return position;
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Give a block back and record how far it merged
+     * 
+     * @param t
+     *            The tracer to record into
+     * @param size
+     *            The record length
+     * @param position
+     *            The starting address of the block
+     * @param blockN
+     *            The blockN of the block
+     */
+    private void releaseTraced(AllocationTracer t, int size, int position,
+        int blockN) {
+        exclusive.lock();
+        try {
+            long mergesBefore = merges.sum();
+
+            release(position, blockN);
+            t.record(AllocationTracer.REMOVE, size, blockN + unit,
+                (int)(merges.sum() - mergesBefore), 0);
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Give a removed block back and shrink the pool if allowed
+     * 
+     * @param position
+     *            The starting address of the block
+     * @param blockN
+     *            The blockN of the block
+     */
+    private void release(int position, int blockN) {
+        free(position, blockN);
+        autoShrink();
+    }
+
+
+    /**
+     * Frees many blocks at once
+     * The batch takes the lock once and shrinks the pool at most
+     * once. Each block merges only along its own buddy chain, so the
+     * work does not grow with the rest of the free block list.
+     * Blocks skip the thread's magazine.
+     * 
+     * @param handles
+     *            The handles representing the blocks
+     */
+    public void removeAll(Handle[] handles) {
+        exclusive.lock();
+        try {
+            freeBatch(handles);
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Free a batch of blocks
+     * The caller holds the exclusive lock
+     * 
+     * @param handles
+     *            The handles representing the blocks
+     */
+    private void freeBatch(Handle[] handles) {
+        for (Handle handle : handles) {
+            if (handle.isLarge()) {
+                int taken = large.release(slotOf(handle));
+                count(-handle.getLength(), -taken);
+                continue;
+            }
+
+            int position = position(handle);
+            int length = handle.getLength();
+            int blockN = nextPow2(units(length));
+
+            if (slabs != null && slabs.isSlab(position)) {
+                count(-length, -slabs.slotSize(length));
+                position = slabs.release(position);
+                blockN = slabs.getSlabOrder();
+                if (position < 0) {
+                    // Slab still holds other records
+                    continue;
+                }
+            }
+            else {
+                count(-length, -bytes(raiseToPow2(blockN)));
+            }
+
+            freebytes.addAndGet(raiseToPow2(blockN));
+            usedBlocks.decrementAndGet(blockN);
+            give(position, blockN);
+        }
+
+        autoShrink();
+    }
+
+
+    /**
+     * Give memory back if usage dropped low enough
+     */
+    private void autoShrink() {
+        if (shrinkWatermark <= 0) {
+            return;
+        }
+
+        exclusive.lock();
+        try {
+            while (capacity - freebytes.get() <= shrinkWatermark
+                * (capacity / 2) && shrink()) {
+                // Keep halving
+            }
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Give a block back to the free block list
+     * 
+     * @param position
+     *            The starting address of the block
+     * @param blockN
+     *            The blockN of the block
+     */
+    private void free(int position, int blockN) {
+        shared.lock();
+        try {
+            freebytes.addAndGet(raiseToPow2(blockN));
+            usedBlocks.decrementAndGet(blockN);
+
+            // Merge with buddies and add to FBL
+            give(position, blockN);
+        }
+        finally {
+            shared.unlock();
+        }
+    }
+
+
+    /**
+     * Free every record at once
+     * The pool keeps its capacity, so reloading does not resize it
+     * again, unless auto shrink is on. Cached blocks and slabs are
+     * dropped. No other thread may use the manager meanwhile.
+     */
+    @Override
+    public void clear() {
+        exclusive.lock();
+        try {
+            drainMagazines();
+            if (slabs != null) {
+                slabs = new SlabAllocator(slabs.getSlabOrder());
+            }
+            if (large != null) {
+                large.clear();
+            }
+
+            // One free block, the whole pool
+            memory.decommit(0, bytes(capacity));
+            freeblocklist = new FreeBlockList(capacity);
+            freeblocklist.push(this.n, 0);
+            freebytes.set(capacity);
+
+            for (int k = 0; k < usedBlocks.length(); k++) {
+                usedBlocks.set(k, 0);
+            }
+            requestedBytes.reset();
+            allocatedBytes.reset();
+
+            autoShrink();
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Turn on sampling of allocation work
+     * Inserts and removes served by magazines or slabs do not reach
+     * the free block list and are not sampled
+     * 
+     * @param size
+     *            The number of samples kept
+     * @param sampleEvery
+     *            Record one in this many operations
+     */
+    public void enableTracing(int size, int sampleEvery) {
+        tracer = new AllocationTracer(size, sampleEvery);
+    }
+
+
+    /**
+     * Turn off sampling, the samples so far are dropped
+     */
+    public void disableTracing() {
+        tracer = null;
+    }
+
+
+    /**
+     * Return the tracer
+     * 
+     * @return the tracer, null when tracing is off
+     */
+    public AllocationTracer getTracer() {
+        return tracer;
+    }
+
+
+    /**
+     * Turn on the large object path
+     * Records at or above the threshold get a buffer of their own
+     * instead of a buddy block, so they neither split the top of the
+     * pool nor double it. They are not counted in the pool's capacity
+     * or free bytes. Only use before any record is inserted. A
+     * mapped pool cannot save them, so it cannot use this path.
+     * 
+     * @param threshold
+     *            Records at least this many bytes bypass the pool
+     * @param direct
+     *            True to keep their buffers off heap
+     */
+    public void enableLargeObjects(int threshold, boolean direct) {
+        if (memory instanceof MappedPool) {
+            throw new IllegalStateException(
+                "Large records cannot be saved in a mapped pool");
+        }
+        large = new LargeObjectStore(threshold, direct);
+    }
+
+
+    /**
+     * Return the large object store
+     * 
+     * @return the store, null when the large object path is off
+     */
+    public LargeObjectStore getLargeObjects() {
+        return large;
+    }
+
+
+    /**
+     * Turn on slabs for small records
+     * Records of up to SlabAllocator.MAX_SIZE bytes are packed into
+     * slabs carved out of buddy blocks instead of taking a whole
+     * power of two block each. A slab's block counts as used while
+     * any record is in it. A mapped pool rebuilds its records as
+     * buddy blocks when reopened, so it cannot use slabs.
+     * 
+     * @param slabOrder
+     *            2^slabOrder is the size of each slab
+     */
+    @Override
+    public void enableSlabs(int slabOrder) {
+        if (unit != 0) {
+            throw new IllegalStateException(
+                "Slabs need a unit of one byte");
+        }
+        if (memory instanceof MappedPool) {
+            throw new IllegalStateException(
+                "Slab records cannot be saved in a mapped pool");
+        }
+
+        exclusive.lock();
+        try {
+            slabs = new SlabAllocator(slabOrder);
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Put a small record in a slab, making a new slab if needed
+     * 
+     * @param size
+     *            The record length
+     * @return the address of the record
+     */
+    private int allocateSmall(int size) {
+        exclusive.lock();
+        try {
+            int position = slabs.take(size);
+
+            if (position < 0) {
+                slabs.addSlab(allocate(slabs.getSlabOrder()), size);
+                position = slabs.take(size);
+            }
+            return position;
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Free a record if it is in a slab
+     * An empty slab goes back to the free block list
+     * 
+     * @param position
+     *            The address of the record
+     * @return false if the record is not in a slab
+     */
+    private boolean releaseSmall(int position) {
+        exclusive.lock();
+        try {
+            if (!slabs.isSlab(position)) {
+                return false;
+            }
+
+            int empty = slabs.release(position);
+            if (empty >= 0) {
+                release(empty, slabs.getSlabOrder());
+            }
+            return true;
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Turn on per-thread magazines for some block sizes
+     * Each thread caches up to size free blocks of every order from
+     * low to high and serves inserts and removes of those sizes from
+     * its cache. Cached blocks are not counted as free and are not
+     * printed until they are drained.
+     * 
+     * @param low
+     *            The lowest blockN to cache
+     * @param high
+     *            The highest blockN to cache
+     * @param size
+     *            The number of blocks cached per blockN, at least 2
+     */
+    public void enableMagazines(int low, int high, int size) {
+        // A refill keeps one block and caches half the magazine
+        if (size < 2) {
+            throw new IllegalArgumentException(
+                "Magazines must hold at least 2 blocks");
+        }
+
+        exclusive.lock();
+        try {
+            magazineLow = low;
+            magazineHigh = high;
+            magazineSize = size;
+            drainScratch = new int[size];
+            allMagazines = new ArrayList<Magazine>();
+            magazines = new ThreadLocal<Magazine>();
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Return every block cached in magazines to the free block list
+     * Magazines of threads that have finished are dropped
+     */
+    public void drainMagazines() {
+        exclusive.lock();
+        try {
+            if (allMagazines == null) {
+                return;
+            }
+
+            Iterator<Magazine> it = allMagazines.iterator();
+            while (it.hasNext()) {
+                Magazine magazine = it.next();
+
+                // Check first, a live owner may still push meanwhile
+                boolean orphaned = magazine.isOrphaned();
+                for (int k = magazineLow; k <= magazineHigh; k++) {
+                    int count = magazine.take(k, drainScratch,
+                        magazineSize);
+                    freeAll(drainScratch, count, k);
+                }
+
+                if (orphaned) {
+                    it.remove();
+                }
+            }
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Take a block from this thread's magazine, refilling it from the
+     * free block list in one batch when it is empty
+     * 
+     * @param blockN
+     *            The blockN wanted
+     * @return the starting address of the block
+     */
+    private int takeCached(int blockN) {
+        Magazine magazine = magazine();
+
+        int position = magazine.pop(blockN);
+        if (position >= 0) {
+            return position;
+        }
+
+        // Keep the lowest, cache the rest
+        int[] scratch = magazine.getScratch();
+        int count = allocateAll(blockN, scratch, magazineSize / 2);
+        magazine.fill(blockN, scratch, 1, count);
+        return scratch[0];
+    }
+
+
+    /**
+     * Put a freed block in this thread's magazine, flushing half of
+     * the magazine to the free block list in one batch when it is full
+     * 
+     * @param blockN
+     *            The blockN of the block
+     * @param position
+     *            The starting address of the block
+     */
+    private void putCached(int blockN, int position) {
+        Magazine magazine = magazine();
+
+        if (!magazine.push(blockN, position)) {
+            int[] scratch = magazine.getScratch();
+            int count = magazine.take(blockN, scratch, magazineSize / 2);
+            freeAll(scratch, count, blockN);
+
+            magazine.push(blockN, position);
+        }
+    }
+
+
+    /**
+     * Return the number of magazines kept for draining
+     * 
+     * @return the number of magazines, 0 when turned off
+     */
+    public int numMagazines() {
+        exclusive.lock();
+        try {
+            return allMagazines == null ? 0 : allMagazines.size();
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Return this thread's magazine, making it on first use
+     * 
+     * @return the magazine
+     */
+    private Magazine magazine() {
+        Magazine magazine = magazines.get();
+
+        if (magazine == null) {
+            magazine = new Magazine(magazineLow, magazineHigh, magazineSize);
+            magazines.set(magazine);
+
+            exclusive.lock();
+            try {
+                allMagazines.add(magazine);
+            }
+            finally {
+                exclusive.unlock();
+            }
+        }
+        return magazine;
+    }
+
+
+    /**
+     * Take up to max blocks of one blockN in a single trip
+     * Only the first may cause a resize, the rest are split off in
+     * one pass in shared mode
+     * 
+     * @param blockN
+     *            The blockN wanted
+     * @param out
+     *            Where to put the addresses
+     * @param max
+     *            The most blocks to take, at least 1
+     * @return the number of blocks taken, at least 1
+     */
+    private int allocateAll(int blockN, int[] out, int max) {
+        out[0] = allocate(blockN);
+
+        int count = 1;
+        shared.lock();
+        try {
+            while (count < max) {
+                int position = take(blockN);
+                if (position < 0) {
+                    break;
+                }
+                out[count] = position;
+                count++;
+            }
+        }
+        finally {
+            shared.unlock();
+        }
+        return count;
+    }
+
+
+    /**
+     * Give several blocks of one blockN back in a single trip
+     * 
+     * @param positions
+     *            The addresses of the blocks
+     * @param count
+     *            How many to give back
+     * @param blockN
+     *            The blockN of the blocks
+     */
+    private void freeAll(int[] positions, int count, int blockN) {
+        shared.lock();
+        try {
+            freebytes.addAndGet(count * raiseToPow2(blockN));
+            for (int i = 0; i < count; i++) {
+                usedBlocks.decrementAndGet(blockN);
+                give(positions[i], blockN);
+            }
+        }
+        finally {
+            shared.unlock();
+        }
+    }
+
+
+    /**
+     * Mark the block of an existing record as used
+     * Used to rebuild the free block list of a pool that already
+     * holds records, such as a reopened file
+     * 
+     * @param handle
+     *            The handle of the record
+     * @return true if the block was free and is now reserved
+     */
+    @Override
+    public boolean reserve(Handle handle) {
+        int blockN = nextPow2(units(handle.getLength()));
+        exclusive.lock();
+        try {
+            if (!carve(position(handle), blockN)) {
+                return false;
+            }
+        }
+        finally {
+            exclusive.unlock();
+        }
+
+        count(handle.getLength(), bytes(raiseToPow2(blockN)));
+        return true;
+    }
+
+
+    /**
+     * Take a given block out of the free block list
+     * The caller holds the exclusive lock
+     * 
+     * @param position
+     *            The starting address of the block
+     * @param blockN
+     *            The blockN of the block
+     * @return true if the block was free and is now used
+     */
+    private boolean carve(int position, int blockN) {
+        // Find the free block containing the record's block
+        int k = blockN;
+        int start = position;
+        while (k <= this.n && !freeblocklist.contains(k, start)) {
+            k++;
+            start = position & -raiseToPow2(k);
+        }
+
+        if (k > this.n) {
+            // Block is already used
+            return false;
+        }
+
+        // Split down to blockN, freeing the half without the record
+        freeblocklist.remove(k, start);
+        while (k > blockN) {
+            k--;
+            int half = raiseToPow2(k);
+
+            if (position >= start + half) {
+                freeblocklist.push(k, start);
+                start += half;
+            }
+            else {
+                freeblocklist.push(k, start + half);
+            }
+            splits.increment();
+        }
+
+        freebytes.addAndGet(-raiseToPow2(blockN));
+        usedBlocks.incrementAndGet(blockN);
+        return true;
+    }
+
+
+    /**
+     * Move a record to the lowest free block that holds it
+     * Does nothing if no free block is lower than the record or the
+     * record is in a slab. The old handle must not be used once the
+     * record has moved, so no other thread may be reading it.
+     * 
+     * @param handle
+     *            The handle of the record
+     * @return the record's new handle, or handle if it did not move
+     */
+    @Override
+    public Handle relocate(Handle handle) {
+        if (handle.isLarge()) {
+            return handle;
+        }
+
+        exclusive.lock();
+        try {
+
+            int position = position(handle);
+            int length = handle.getLength();
+
+            if (slabs != null && slabs.isSlab(position)) {
+                return handle;
+            }
+
+            int blockN = nextPow2(units(length));
+            int target = lowestFit(position, blockN);
+            if (target < 0) {
+                return handle;
+            }
+
+            // Carve the new block from the front of the free one
+            Handle moved = new Handle(bytes(target), length);
+            carve(target, blockN);
+
+            if (moveScratch == null || moveScratch.length < length) {
+                moveScratch = new byte[length];
+            }
+            memory.read(bytes(position), moveScratch, length);
+            memory.write(bytes(target), moveScratch, length);
+            bytesCopied += length;
+
+            release(position, blockN);
+            return moved;
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
 
-    // The capacity of the memory array
-    private int capacity;
 
-    // 2^N = capacity
-    private int n;
+    /**
+     * Copy a record to the lowest free block that holds it
+     * The old block stays in use and keeps its bytes, so readers of
+     * the old handle are safe until the caller removes it. Bytes are
+     * copied outside the lock.
+     * 
+     * @param handle
+     *            The handle of the record
+     * @return the copy's handle, or handle if nothing is lower
+     */
+    @Override
+    public Handle copyLower(Handle handle) {
+        int length = handle.getLength();
+        int target = claimLower(handle);
+        if (target < 0) {
+            return handle;
+        }
 
-    // The actual memory array
-    private byte[] memory;
+        byte[] bytes = new byte[length];
+        memory.read(handle.getAddress(), bytes, length);
+        memory.write(bytes(target), bytes, length);
+        count(length, bytes(raiseToPow2(nextPow2(units(length)))));
 
-    // The free block list
-    private ArrayList<ArrayList<Integer>> freeblocklist;
+        return new Handle(bytes(target), length);
+    }
 
-    // Number of free bytes
-    private int freebytes;
 
     /**
-     * Constructor for MemoryManager
+     * Take the lowest free block below a record that holds it
      * 
-     * @param capacity
-     *            The initial capacity must be a power of two
+     * @param handle
+     *            The handle of the record
+     * @return the position taken, or -1 if there is none
      */
-    public MemoryManager(int capacity) {
-        // Save capacity
-        this.capacity = capacity;
-        this.n = nextPow2(capacity);
-        this.freebytes = capacity;
+    private int claimLower(Handle handle) {
+        if (handle.isLarge()) {
+            return -1;
+        }
 
-        // Init memory array
-        memory = new byte[capacity];
+        exclusive.lock();
+        try {
+            int position = position(handle);
+            if (slabs != null && slabs.isSlab(position)) {
+                return -1;
+            }
 
-        // Init free block list
-        freeblocklist = new ArrayList<ArrayList<Integer>>();
+            int blockN = nextPow2(units(handle.getLength()));
+            int target = lowestFit(position, blockN);
+            if (target >= 0) {
+                carve(target, blockN);
+                bytesCopied += handle.getLength();
+            }
+            return target;
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
 
-        for (int i = 0; i <= this.n; i++) {
-            freeblocklist.add(new ArrayList<Integer>());
+
+    /**
+     * Return the lowest free block of blockN or larger below a position
+     * The caller holds the exclusive lock
+     * 
+     * @param position
+     *            The position of the record
+     * @param blockN
+     *            The blockN of the record
+     * @return the free block's position, or -1 if none is lower
+     */
+    private int lowestFit(int position, int blockN) {
+        int target = -1;
+        for (int k = blockN; k <= this.n; k++) {
+            int first = freeblocklist.first(k);
+            if (first >= 0 && (target < 0 || first < target)) {
+                target = first;
+            }
         }
 
-        // Place one block at the end
-        // Free block = whole initial array
-        // Each node stores starting address of free block
-        freeblocklist.get(this.n).add(0);
+        if (target > position) {
+            return -1;
+        }
+        return target;
     }
 
 
     /**
-     * Insert the space array into memory
+     * Replace a record with new bytes, moving it only if it must
+     * The record stays where it is if the new length takes the same
+     * block, gives back the upper halves if it takes a smaller one,
+     * and takes in its free buddies if it needs a larger one. Only
+     * when that fails is it inserted again and the old block freed.
      * 
+     * @param handle
+     *            The handle of the record
      * @param space
-     *            The byte array to enter
+     *            The new bytes of the record
      * @param size
-     *            The size of the byte array
-     * @return a Handle representing where it was placed in memory
+     *            The new length of the record
+     * @return the record's new handle
      */
-    public Handle insert(byte[] space, int size) {
-        // Handle returned: start address, actual length of record
-        // Assume error checking, just do the insert
-
-        int blockN = nextPow2(size);
-        int blocksize = raiseToPow2(blockN);
-
-        // Check size and resize
-        // If can't insert -> resize
-        // Keep resizing until done
-        while (!canInsert(blockN)) {
-            resize();
+    @Override
+    public Handle realloc(Handle handle, byte[] space, int size) {
+        if (handle.isLarge()) {
+            return reallocLarge(handle, space, size);
         }
 
-        // Here, we are guaranteed enough space
-
-        // Check if we have a free block in blockN
-        ArrayList<Integer> sublist = freeblocklist.get(blockN);
+        int position = position(handle);
+        int length = handle.getLength();
 
-        if (sublist.size() == 0) {
-            // Native block size not available
-            // Split here
-            split(blockN);
+        if (slabs != null && slabs.isSlab(position)) {
+            if (!slabs.fits(size) || slabs.slotSize(size) != slabs
+                .slotSize(length)) {
+                return replace(handle, space, size);
+            }
+            count(size - length, 0);
+        }
+        else if (resizeInPlace(position, nextPow2(units(length)), nextPow2(
+            units(size)))) {
+            count(size - length, bytes(raiseToPow2(nextPow2(units(size))))
+                - bytes(raiseToPow2(nextPow2(units(length)))));
+        }
+        else {
+            return replace(handle, space, size);
         }
 
-        // At this point, native block size is available
-        // Insert is smallest position
-        // Sorted list -> smallest position is index 0
-        int position = sublist.get(0);
+        // Same block, copy outside the lock
+        memory.write(handle.getAddress(), space, size);
+        return new Handle(handle.getAddress(), size);
+    }
 
-        // Copy space array into memory array
-        for (int i = 0; i < size; i++) {
-            memory[position + i] = space[i];
-        }
-        freebytes -= blocksize;
 
-        // Remove block from FBL
-        sublist.remove(0);
+    /**
+     * Replace a large record with new bytes
+     * The record keeps its buffer if it is still large and fits
+     * 
+     * @param handle
+     *            The handle of the record
+     * @param space
+     *            The new bytes of the record
+     * @param size
+     *            The new length of the record
+     * @return the record's new handle
+     */
+    private Handle reallocLarge(Handle handle, byte[] space, int size) {
+        int slot = slotOf(handle);
+        if (!large.fits(size) || size > large.capacityOf(slot)) {
+            return replace(handle, space, size);
+        }
 
-        // Build and return the handle
-        Handle handle = new Handle(position, size);
-        return handle;
+        // The buffer keeps its capacity
+        large.write(slot, space, size);
+        count(size - handle.getLength(), 0);
+        return new Handle(handle.getAddress(), size);
     }
 
 
     /**
-     * Frees the specified block in memory
+     * Insert a record again and free its old block
      * 
      * @param handle
-     *            The handle representing the block
+     *            The handle of the record
+     * @param space
+     *            The new bytes of the record
+     * @param size
+     *            The new length of the record
+     * @return the record's new handle
      */
-    public void remove(Handle handle) {
-        // Assume error checking, just do the remove
+    private Handle replace(Handle handle, byte[] space, int size) {
+        Handle moved = insert(space, size);
+        remove(handle);
+        return moved;
+    }
 
-        // Give the block back to FBL
-        int position = handle.getAddress();
-        int length = handle.getLength();
-        int blockN = nextPow2(length);
-        int blocksize = raiseToPow2(blockN);
 
-        ArrayList<Integer> sublist = freeblocklist.get(blockN);
-        addToListSorted(sublist, position);
-        freebytes += blocksize;
+    /**
+     * Change the order of a used block without moving it
+     * A smaller block frees its upper halves, a larger one needs
+     * every buddy above it to be free
+     * 
+     * @param position
+     *            The starting address of the block
+     * @param oldN
+     *            The blockN of the block now
+     * @param newN
+     *            The blockN wanted
+     * @return true if the block now has order newN
+     */
+    private boolean resizeInPlace(int position, int oldN, int newN) {
+        exclusive.lock();
+        try {
+            if (newN > oldN) {
+                // The block must be the lower buddy at every level
+                if ((position & (raiseToPow2(newN) - 1)) != 0
+                    || newN > this.n) {
+                    return false;
+                }
+                for (int k = oldN; k < newN; k++) {
+                    if (!freeblocklist.contains(k, position + raiseToPow2(k))) {
+                        return false;
+                    }
+                }
+
+                for (int k = oldN; k < newN; k++) {
+                    freeblocklist.remove(k, position + raiseToPow2(k));
+                    freebytes.addAndGet(-raiseToPow2(k));
+                    merges.increment();
+                }
+            }
+            else {
+                // Upper halves go back, largest first
+                for (int k = oldN - 1; k >= newN; k--) {
+                    freebytes.addAndGet(raiseToPow2(k));
+                    give(position + raiseToPow2(k), k);
+                    splits.increment();
+                }
+            }
 
-        // Call merge
-        merge();
+            usedBlocks.decrementAndGet(oldN);
+            usedBlocks.incrementAndGet(newN);
+            return true;
+        }
+        finally {
+            exclusive.unlock();
+        }
     }
 
 
@@ -146,12 +1507,13 @@ public class MemoryManager {
      *            The size of the space array
      * @return true if successful
      */
+    @Override
     public boolean get(byte[] space, Handle handle, int size) {
         // Copy "size" bytes into "space" from position specified
         // by "handle"
 
         // Assume error checking, just do the get
-        int position = handle.getAddress();
+        long position = handle.getAddress();
         int length = handle.getLength();
 
         if (length != size) {
@@ -159,13 +1521,33 @@ public class MemoryManager {
             return false;
         }
 
-        for (int i = 0; i < size; i++) {
-            space[i] = memory[position + i];
+        if (handle.isLarge()) {
+            large.read(slotOf(handle), space, size);
+            return true;
         }
+        memory.read(position, space, size);
         return true;
     }
 
 
+    /**
+     * Return a read-only view of a record's bytes in the pool
+     * Nothing is copied, so the view is only good until the record
+     * is removed
+     *
+     * @param handle
+     *            The handle of the record
+     * @return a read-only buffer holding the record
+     */
+    @Override
+    public ByteBuffer view(Handle handle) {
+        if (handle.isLarge()) {
+            return large.view(slotOf(handle), handle.getLength());
+        }
+        return memory.view(handle.getAddress(), handle.getLength());
+    }
+
+
     /**
      * Splits the free block list until a blockN is available
      * 
@@ -173,129 +1555,103 @@ public class MemoryManager {
      *            The target blockN to make
      */
     public void split(int blockN) {
-        // Known sublist at blockN is empty when calling this
-        // Known there is space somewhere below blockN
-        // because resizing always happens first
-
-        // Find sublist below blockN that has space (guaranteed)
-        int i;
-        for (i = blockN + 1; i <= this.n; i++) {
-            ArrayList<Integer> sublist = freeblocklist.get(i);
-            if (sublist.size() > 0) {
-                break;
-            }
-        }
+        exclusive.lock();
+        try {
+            // Known level blockN is empty when calling this
+            // Known there is space somewhere below blockN
+            // because resizing always happens first
 
-        // What if it didn't find it?
-        // That should never happen
+            // Find level above blockN that has space (guaranteed)
+            int i = freeblocklist.smallestFrom(blockN + 1);
 
-        // At this point, i is now the index with next highest size
-        // Keep splitting until blockN size is not zero
-        while (freeblocklist.get(blockN).size() == 0) {
-            // Split level i, keep sorted order
-            ArrayList<Integer> sublist = freeblocklist.get(i);
+            // What if it didn't find it?
+            // That should never happen
 
-            // Pop front value
-            int position = sublist.get(0);
-            sublist.remove(0);
+            // At this point, i is now the index with next highest size
+            // Keep splitting until blockN size is not zero
+            while (freeblocklist.isEmpty(blockN)) {
+                // Split level i
+                // Pop lowest value
+                int position = freeblocklist.pop(i);
 
-            // Add two values to previous sublist
-            ArrayList<Integer> prevSubList = freeblocklist.get(i - 1);
-            int prevBlockSize = raiseToPow2(i - 1);
+                // Add two values to previous level
+                int prevBlockSize = raiseToPow2(i - 1);
 
-            addToListSorted(prevSubList, position);
-            addToListSorted(prevSubList, position + prevBlockSize);
+                freeblocklist.push(i - 1, position);
+                freeblocklist.push(i - 1, position + prevBlockSize);
+                splits.increment();
 
-            i--;
+                i--;
+            }
+            // At this point, blockN level has at least one available block
+        }
+        finally {
+            exclusive.unlock();
         }
-        // At this point, blockN sublist has at least one available block
     }
 
 
     /**
-     * Merge all buddies together and propagate through all sizes
+     * Give a block back to the free block list, merging it with
+     * its buddy for as long as the buddy is free
+     * Only the freed block's own buddy chain is visited
+     * 
+     * @param position
+     *            The starting address of the free block
+     * @param blockN
+     *            The blockN of the free block
      */
-    public void merge() {
-        // For each size in FBL
-        // No need to try to merge last level
-        for (int i = 0; i <= this.n - 1; i++) {
-            ArrayList<Integer> sublist = freeblocklist.get(i);
-
-            // Ignore empty sublists
-            if (sublist.size() == 0) {
-                continue;
-            }
-
-            // Call helper function
-            mergehelp(i);
+    public void merge(int position, int blockN) {
+        shared.lock();
+        try {
+            give(position, blockN);
+        }
+        finally {
+            shared.unlock();
         }
     }
 
 
     /**
-     * This is a helper method factored out of merge
-     * to help readability
+     * Merge a free block up its buddy chain and add it to the list
+     * The caller is in shared or exclusive mode. Each order is locked
+     * before the one below it is let go, so a block in flight is
+     * always met by a thread freeing its buddy. A block that merges
+     * to half the pool or more gives its memory back to the pool
+     * before another thread can take it.
      * 
-     * @param i
-     *            The current loop iteration inside merge
+     * @param position
+     *            The starting address of the free block
+     * @param blockN
+     *            The blockN of the free block
      */
-    public void mergehelp(int i) {
-        // If buddies in sublist, merge to i+1
-        // Can never have more than one pair of buddies in a single pass
-
-        int blocksize = raiseToPow2(i);
-        ArrayList<Integer> sublist = freeblocklist.get(i);
+    private void give(int position, int blockN) {
+        orderLocks[blockN].lock();
 
-        // For each block in sublist
-        // No need to try to merge last block
-        // Insight: Two buddies will ALWAYS be next to each other
-        // because the array is sorted (b2Index = b1Index + 1)
-        for (int j = 0; j < sublist.size() - 1; j++) {
-            int position = sublist.get(j);
+        // Climb until the buddy is busy or the block is the whole pool
+        while (blockN < this.n) {
+            int blocksize = raiseToPow2(blockN);
             int buddyPos = getBuddyPos(position, blocksize);
 
-            int b1index = j;
-            int b2index = j + 1;
-
-            // BuddyPos should be in j+1
-            if (sublist.get(b2index) == buddyPos) {
-                // Found the buddy, let's merge
-                ArrayList<Integer> nextList = freeblocklist.get(i + 1);
-
-                // Remove b2
-                sublist.remove(b2index);
-
-                // Move b1 to next list
-                addToListSorted(nextList, position);
-                sublist.remove(b1index);
-
-                // Only one merge to handle max, so return to save time
-                return;
+            if (!freeblocklist.contains(blockN, buddyPos)) {
+                break;
             }
-        }
-    }
 
-
-    /**
-     * Adds the value to the list to ensure it stays sorted
-     * 
-     * @param list
-     *            The list to add to
-     * @param value
-     *            The value to add
-     */
-    public void addToListSorted(ArrayList<Integer> list, int value) {
-        int i;
-
-        for (i = 0; i < list.size(); i++) {
-            if (value < list.get(i)) {
-                list.add(i, value);
-                return;
-            }
+            // Found the buddy, let's merge
+            // Merged block starts at the lower of the two
+            freeblocklist.remove(blockN, buddyPos);
+            position = Math.min(position, buddyPos);
+            orderLocks[blockN + 1].lock();
+            orderLocks[blockN].unlock();
+            blockN++;
+            merges.increment();
         }
 
-        // It should go at the end
-        list.add(value);
+        if (blockN >= this.n - 1) {
+            memory.decommit(bytes(position), bytes(raiseToPow2(blockN)));
+        }
+        freeblocklist.push(blockN, position);
+        orderLocks[blockN].unlock();
     }
 
 
@@ -308,11 +1664,9 @@ public class MemoryManager {
      * @return ceiling(log2(n))
      */
     public int nextPow2(int value) {
-        double log2n = Math.log(value) / Math.log(2);
-
-        int result = (int)Math.ceil(log2n);
-
-        return result;
+        // Bit count of value - 1 is ceiling(log2(value))
+        // Math.log rounds 2^29 up to 30, so stay in integers
+        return 32 - Integer.numberOfLeadingZeros(value - 1);
     }
 
 
@@ -324,7 +1678,7 @@ public class MemoryManager {
      * @return 2^blockN
      */
     public int raiseToPow2(int blockN) {
-        return (int)Math.pow(2, blockN);
+        return 1 << blockN;
     }
 
 
@@ -373,53 +1727,60 @@ public class MemoryManager {
      * 
      * @return freebytes
      */
-    public int numFreeBytes() {
-        return freebytes;
+    @Override
+    public long numFreeBytes() {
+        return bytes(freebytes.get());
     }
 
 
     /**
      * Print the free block list to output
      */
+    @Override
     public void print() {
-        System.out.println("Freeblock List:");
-
-        // Check if no free blocks
-        if (freebytes <= 0) {
-            System.out.println("There are no freeblocks in the memory pool");
-            return;
-        }
+        exclusive.lock();
+        try {
+            System.out.println("Freeblock List:");
+
+            // Check if no free blocks
+            if (freebytes.get() <= 0) {
+                System.out.println(
+                    "There are no freeblocks in the memory pool");
+                return;
+            }
 
-        String out;
+            String out;
 
-        // We know there are free blocks
-        for (int i = 0; i <= this.n; i++) {
-            // For each size block
-            ArrayList<Integer> sublist = freeblocklist.get(i);
+            // We know there are free blocks
+            for (int i = 0; i <= this.n; i++) {
+                // For each size block
+                // Ignore empty levels
+                if (freeblocklist.isEmpty(i)) {
+                    continue;
+                }
 
-            // Ignore empty sublists
-            if (sublist.size() == 0) {
-                continue;
-            }
+                // Start printing
+                int blocksize = raiseToPow2(i);
 
-            // Start printing
-            int blocksize = raiseToPow2(i);
+                out = String.format("%d: ", bytes(blocksize));
+                System.out.print(out);
 
-            out = String.format("%d: ", blocksize);
-            System.out.print(out);
+                // Print all the blocks in here, lowest address first
+                int position = freeblocklist.first(i);
+                while (position >= 0) {
+                    out = String.format("%d ", bytes(position));
+                    System.out.print(out);
 
-            // Print all the blocks in here
-            for (int j = 0; j < sublist.size(); j++) {
-                int position = sublist.get(j);
+                    position = freeblocklist.next(i, position + blocksize);
+                }
 
-                out = String.format("%d ", position);
-                System.out.print(out);
+                // New line
+                System.out.println();
             }
-
-            // New line
-            System.out.println();
         }
-
+        finally {
+            exclusive.unlock();
+        }
     }
 
 
@@ -434,18 +1795,15 @@ public class MemoryManager {
         // True if current memory can insert a blockN
         // False if not -> Resize before anything else
 
-        // Can insert if any sublist blockN -> this.N
-        // has length > 0
-        // See if any sublist has space
-        for (int i = blockN; i <= this.n; i++) {
-            ArrayList<Integer> sublist = freeblocklist.get(i);
-            if (sublist.size() > 0) {
-                return true;
-            }
+        // Can insert if any level blockN -> this.N
+        // has a free block
+        shared.lock();
+        try {
+            return freeblocklist.smallestFrom(blockN) >= 0;
+        }
+        finally {
+            shared.unlock();
         }
-
-        // No sublist found
-        return false;
     }
 
 
@@ -453,36 +1811,226 @@ public class MemoryManager {
      * Resizes the memory pool
      */
     public void resize() {
-        // Double capacity
-        int newCapacity = capacity * 2;
+        exclusive.lock();
+        try {
+            // Double capacity, or more as the growth policy asks
+            // Never past the largest pool unless already there
+            long next = Math.min(growth.nextCapacity(capacity, freebytes
+                .get()), 1L << 30);
+            growTo(Math.max(next, capacity * 2L));
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Set how far the pool grows when it is full
+     * 
+     * @param policy
+     *            The growth policy
+     */
+    public void setGrowthPolicy(GrowthPolicy policy) {
+        exclusive.lock();
+        try {
+            growth = policy;
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Grow the pool once so records of these sizes fit without
+     * further resizes, keeping the growth policy's headroom free
+     * Does nothing if they already fit. Records for the large store
+     * take no buddy space and small records are counted by slab, so
+     * turn those on first
+     * 
+     * @param sizes
+     *            The lengths of the records to come
+     */
+    public void presize(int[] sizes) {
+        SlabAllocator small = slabs;
+        LargeObjectStore big = large;
+        int[] slotted = new int[SlabAllocator.MAX_SIZE
+            / SlabAllocator.CLASS_SIZE + 1];
+        long demand = 0;
+        for (int size : sizes) {
+            if (big != null && big.fits(size)) {
+                continue;
+            }
+            if (small != null && small.fits(size)) {
+                slotted[small.slotSize(size) / SlabAllocator.CLASS_SIZE]++;
+            }
+            else {
+                demand += raiseToPow2(nextPow2(units(size)));
+            }
+        }
+
+        // Whole slabs for each size class
+        for (int c = 1; c < slotted.length; c++) {
+            if (slotted[c] > 0) {
+                int perSlab = (1 << small.getSlabOrder()) / (c
+                    * SlabAllocator.CLASS_SIZE);
+                demand += (long)raiseToPow2(small.getSlabOrder())
+                    * ((slotted[c] + perSlab - 1) / perSlab);
+            }
+        }
+
+        exclusive.lock();
+        try {
+            presizeUnits(capacity - freebytes.get() + demand);
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Grow the pool once to the capacity a previous run ended with
+     * Does nothing if the pool is already that large
+     * 
+     * @param previous
+     *            The stats of the previous run
+     */
+    public void presize(PoolStats previous) {
+        exclusive.lock();
+        try {
+            presizeUnits(previous.getCapacity() >> unit);
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Grow the pool once to hold used units with headroom
+     * The caller holds the exclusive lock
+     * 
+     * @param used
+     *            The units in use once loaded
+     */
+    private void presizeUnits(long used) {
+        long target = growth.capacityFor(used);
+        if (target > capacity) {
+            growTo(target);
+        }
+    }
+
+
+    /**
+     * Grows the memory pool in one step
+     * The caller holds the exclusive lock
+     * 
+     * @param target
+     *            The new capacity, a power of two times the old one
+     */
+    private void growTo(long target) {
+        // Positions are ints, so at most 2^30 units
+        if (target <= 0 || target > 1 << 30) {
+            throw new IllegalStateException(
+                "Memory pool cannot grow, use a larger unit");
+        }
+        int newCapacity = (int)target;
 
         // Announce to console out
         String out;
-        out = String.format("Memory pool expanded to %d bytes", newCapacity);
+        out = String.format("Memory pool expanded to %d bytes", bytes(
+            newCapacity));
         System.out.println(out);
 
-        // Create new size array
-        byte[] newMemory = new byte[newCapacity];
+        // Grow the pool, old contents are kept
+        memory.grow(bytes(newCapacity));
+        resizes++;
 
-        // Copy over old array
-        for (int i = 0; i < capacity; i++) {
-            newMemory[i] = memory[i];
+        while (capacity < newCapacity) {
+            // Update stats vars
+            freebytes.addAndGet(capacity);
+
+            // Install new capacity
+            int oldCapacity = capacity;
+            capacity *= 2;
+            this.n += 1;
+
+            // Update FBL
+            // New half merges with the old pool if that is all free
+            freeblocklist.grow();
+            give(oldCapacity, this.n - 1);
         }
+    }
+
 
-        // Install new array and update stats vars
-        memory = newMemory;
-        freebytes += capacity;
+    /**
+     * Shrinks the memory pool by releasing its upper half
+     * Only possible when the upper half is one free block and the
+     * pool is larger than its initial capacity
+     * 
+     * @return true if the pool shrank
+     */
+    public boolean shrink() {
+        exclusive.lock();
+        try {
+            if (capacity <= minCapacity) {
+                return false;
+            }
+
+            int half = capacity / 2;
+
+            if (freeblocklist.contains(this.n, 0)) {
+                // Whole pool is free, keep the lower half
+                freeblocklist.remove(this.n, 0);
+                freeblocklist.push(this.n - 1, 0);
+            }
+            else if (freeblocklist.contains(this.n - 1, half)) {
+                freeblocklist.remove(this.n - 1, half);
+            }
+            else {
+                // Upper half is in use
+                return false;
+            }
+
+            // Announce to console out
+            String out;
+            out = String.format("Memory pool shrunk to %d bytes", bytes(half));
+            System.out.println(out);
 
-        // Update FBL
-        freeblocklist.add(new ArrayList<Integer>());
-        freeblocklist.get(this.n).add(capacity);
+            // Install new capacity
+            shrinks++;
+            freebytes.addAndGet(-half);
+            capacity = half;
+            this.n -= 1;
+
+            freeblocklist.shrink();
+            memory.shrink(bytes(half));
+            return true;
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
 
-        // Install new capacity
-        capacity = newCapacity;
-        this.n += 1;
 
-        // Merge here
-        merge();
+    /**
+     * Turn on automatic shrinking after remove
+     * The pool halves when the bytes in use fit in watermark times
+     * the smaller pool. Keeping the watermark under one half means
+     * the smaller pool is left with room to spare, so it does not
+     * grow straight back.
+     * 
+     * @param watermark
+     *            Fraction between 0 and 0.5, 0 turns it off
+     */
+    public void setShrinkWatermark(double watermark) {
+        if (watermark < 0 || watermark > 0.5) {
+            throw new IllegalArgumentException(
+                "Shrink watermark must be between 0 and 0.5");
+        }
+        shrinkWatermark = watermark;
     }
 
 
@@ -491,8 +2039,110 @@ public class MemoryManager {
      * 
      * @return capacity
      */
-    public int getCapacity() {
-        return capacity;
+    @Override
+    public long getCapacity() {
+        shared.lock();
+        try {
+            return bytes(capacity);
+        }
+        finally {
+            shared.unlock();
+        }
+    }
+
+
+    /**
+     * Return a snapshot of the pool's occupancy and fragmentation
+     * Cheap enough to call often, it only copies counters
+     * 
+     * @return the stats
+     */
+    public PoolStats stats() {
+        exclusive.lock();
+        try {
+            // Index by the order of the block size in bytes
+            int[] freeBlocks = new int[this.n + unit + 1];
+            int[] used = new int[this.n + unit + 1];
+            for (int k = 0; k <= this.n; k++) {
+                freeBlocks[k + unit] = freeblocklist.count(k);
+                used[k + unit] = usedBlocks.get(k);
+            }
+
+            int largest = freeblocklist.largest();
+            long largestFree = largest < 0 ? 0 : bytes(raiseToPow2(
+                largest));
+
+            return new PoolStats(bytes(capacity), bytes(freebytes.get()),
+                freeBlocks, used, requestedBytes.sum(), allocatedBytes
+                    .sum(), largestFree, resizes, shrinks, bytesCopied,
+                splits.sum(), merges.sum());
+        }
+        finally {
+            exclusive.unlock();
+        }
+    }
+
+
+    /**
+     * Return the number of units a record takes
+     * 
+     * @param size
+     *            The record length in bytes
+     * @return the length in units, rounded up
+     */
+    private int units(int size) {
+        return (int)((size + (1L << unit) - 1) >> unit);
+    }
+
+
+    /**
+     * Return the bytes in a number of units
+     * Also turns a position into a byte address
+     * 
+     * @param units
+     *            The units or position
+     * @return the bytes or address
+     */
+    private long bytes(int units) {
+        return (long)units << unit;
+    }
+
+
+    /**
+     * Return the position of a handle's record
+     * 
+     * @param handle
+     *            The handle of the record
+     * @return the position in units
+     */
+    private int position(Handle handle) {
+        return (int)(handle.getAddress() >> unit);
+    }
+
+
+    /**
+     * Return the slot of a large record
+     * 
+     * @param handle
+     *            The handle of the record
+     * @return the slot in the large object store
+     */
+    private int slotOf(Handle handle) {
+        return (int)(handle.getAddress() & ~Handle.LARGE);
+    }
+
+
+    /**
+     * Count a record being added or removed
+     * 
+     * @param requested
+     *            The record length, negative when removed
+     * @param taken
+     *            The block or slot size, negative when removed
+     */
+    private void count(int requested, long taken) {
+        requestedBytes.add(requested);
+        allocatedBytes.add(taken);
     }
 
 }
@@ -1,4 +1,9 @@
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 import student.TestCase;
 
 /**
@@ -61,6 +66,12 @@ public class MemoryManagerTest extends TestCase {
 
         result = memory.nextPow2(1000);
         assertEquals(result, 10);
+
+        // Large powers of two must not round up
+        for (int i = 0; i <= 30; i++) {
+            assertEquals(memory.nextPow2(1 << i), i);
+        }
+        assertEquals(memory.nextPow2((1 << 29) + 1), 30);
     }
 
 
@@ -78,28 +89,6 @@ public class MemoryManagerTest extends TestCase {
     }
 
 
-    /**
-     * Test the sorted add method
-     */
-    public void testAddToListSorted() {
-        ArrayList<Integer> list = new ArrayList<Integer>();
-
-        memory.addToListSorted(list, 0);
-        memory.addToListSorted(list, 4);
-        memory.addToListSorted(list, 3);
-        memory.addToListSorted(list, 5);
-        memory.addToListSorted(list, 11);
-        memory.addToListSorted(list, 7);
-        memory.addToListSorted(list, 20);
-        memory.addToListSorted(list, 15);
-
-        // Assert it is sorted
-        for (int i = 0; i < list.size() - 1; i++) {
-            assertTrue(list.get(i) < list.get(i + 1));
-        }
-    }
-
-
     /**
      * Test a simple split
      */
@@ -1065,6 +1054,828 @@ public class MemoryManagerTest extends TestCase {
     }
 
 
+    /**
+     * Test one remove merging all the way up the buddy chain
+     */
+    public void testMergeCascade() {
+        memory = new MemoryManager(128);
+
+        // Fill memory with one block of every size
+        Handle[] handles = new Handle[8];
+        handles[0] = memory.insert(new byte[1], 1);
+        handles[1] = memory.insert(new byte[1], 1);
+        for (int i = 2; i < 8; i++) {
+            int size = memory.raiseToPow2(i - 1);
+            handles[i] = memory.insert(new byte[size], size);
+            assertEquals(handles[i].getAddress(), size);
+        }
+        assertEquals(memory.numFreeBytes(), 0);
+
+        // Free everything but address 0, nothing can merge
+        for (int i = 7; i >= 1; i--) {
+            memory.remove(handles[i]);
+        }
+
+        systemOut().clearHistory();
+        memory.print();
+        String actual = systemOut().getHistory();
+        String expected = "Freeblock List:\n" + "1: 1\n" + "2: 2\n"
+            + "4: 4\n" + "8: 8\n" + "16: 16\n" + "32: 32\n" + "64: 64\n";
+        assertFuzzyEquals(actual, expected);
+
+        // Freeing address 0 merges every level
+        memory.remove(handles[0]);
+
+        systemOut().clearHistory();
+        memory.print();
+        actual = systemOut().getHistory();
+        expected = "Freeblock List:\n" + "128: 0\n";
+        assertFuzzyEquals(actual, expected);
+        assertEquals(memory.numFreeBytes(), 128);
+    }
+
+
+    /**
+     * Test that steady state insert and remove do not allocate
+     * Only the Handle returned by insert is allowed
+     */
+    public void testNoSteadyStateAllocation() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            // Allocation counters not available on this JVM
+            return;
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)bean;
+        long id = Thread.currentThread().getId();
+
+        memory = new MemoryManager(1 << 16);
+        int records = 256;
+        byte[] space = new byte[300];
+        Handle[] handles = new Handle[records];
+
+        // Warm up so the pool is grown and the code is compiled
+        long removeBytes = 0;
+        long insertBytes = 0;
+        for (int round = 0; round < 200; round++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            for (int i = 0; i < records; i++) {
+                int size = 1 + (i * 37 + round) % 300;
+                handles[i] = memory.insert(space, size);
+            }
+            long middle = threads.getThreadAllocatedBytes(id);
+            for (int i = 0; i < records; i++) {
+                memory.remove(handles[(i * 7) % records]);
+            }
+            long after = threads.getThreadAllocatedBytes(id);
+
+            insertBytes = middle - before;
+            removeBytes = after - middle;
+        }
+
+        // Last round: remove is free, insert only pays for handles
+        assertEquals(removeBytes, 0);
+        assertTrue(insertBytes <= records * 32L);
+        assertEquals(memory.numFreeBytes(), memory.getCapacity());
+    }
+
+
+    /**
+     * Test records survive a resize in an off heap pool
+     */
+    public void testOffHeapPool() {
+        memory = new MemoryManager(new BufferPool(32, true));
+
+        byte[] record = new byte[20];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = (byte)(i + 1);
+        }
+
+        Handle handle1 = memory.insert(record, 20);
+        Handle handle2 = memory.insert(record, 20);
+        assertEquals(memory.getCapacity(), 64);
+        assertEquals(handle2.getAddress(), 32);
+
+        byte[] space = new byte[20];
+        assertTrue(memory.get(space, handle1, 20));
+        for (int i = 0; i < space.length; i++) {
+            assertEquals(space[i], (byte)(i + 1));
+        }
+
+        space = new byte[20];
+        assertTrue(memory.get(space, handle2, 20));
+        for (int i = 0; i < space.length; i++) {
+            assertEquals(space[i], (byte)(i + 1));
+        }
+    }
+
+
+    /**
+     * Test reading records through views
+     */
+    public void testView() {
+        memory = new MemoryManager(new BufferPool(32, true));
+
+        byte[] record = new byte[20];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = (byte)(i + 1);
+        }
+
+        Handle handle1 = memory.insert(record, 20);
+        Handle handle2 = memory.insert(record, 10);
+
+        ByteBuffer view = memory.view(handle1);
+        assertTrue(view.isReadOnly());
+        assertEquals(view.remaining(), 20);
+        assertEquals(view.get(19), 20);
+
+        // The first view is still good after the pool grows
+        view = memory.view(handle2);
+        assertEquals(view.remaining(), 10);
+        assertEquals(view.get(9), 10);
+        assertEquals(memory.view(handle1).get(0), 1);
+    }
+
+
+    /**
+     * Test reserving the block of an existing record
+     */
+    public void testReserve() {
+        memory = new MemoryManager(128);
+
+        Handle handle = new Handle(40, 8);
+        assertTrue(memory.reserve(handle));
+        assertEquals(memory.numFreeBytes(), 120);
+
+        systemOut().clearHistory();
+        memory.print();
+        String actual = systemOut().getHistory();
+        String expected = "Freeblock List:\n" + "8: 32\n" + "16: 48\n"
+            + "32: 0\n" + "64: 64\n";
+        assertFuzzyEquals(actual, expected);
+
+        // Already used
+        assertFalse(memory.reserve(handle));
+        assertFalse(memory.reserve(new Handle(32, 16)));
+
+        // Freeing it puts everything back together
+        memory.remove(handle);
+        assertEquals(memory.numFreeBytes(), 128);
+
+        systemOut().clearHistory();
+        memory.print();
+        actual = systemOut().getHistory();
+        expected = "Freeblock List:\n" + "128: 0\n";
+        assertFuzzyEquals(actual, expected);
+    }
+
+
+    /**
+     * Test releasing the upper half of the pool on demand
+     */
+    public void testShrink() {
+        memory = new MemoryManager(64);
+
+        byte[] space = new byte[40];
+        Handle handle1 = memory.insert(space, 40);
+        Handle handle2 = memory.insert(space, 40);
+        assertEquals(memory.getCapacity(), 128);
+        assertEquals(handle2.getAddress(), 64);
+
+        // Upper half is still in use
+        assertFalse(memory.shrink());
+
+        memory.remove(handle2);
+        systemOut().clearHistory();
+        assertTrue(memory.shrink());
+        assertFuzzyEquals(systemOut().getHistory(),
+            "Memory pool shrunk to 64 bytes\n");
+        assertEquals(memory.getCapacity(), 64);
+        assertEquals(memory.numFreeBytes(), 0);
+
+        // Never below the initial capacity
+        assertFalse(memory.shrink());
+
+        // Record in the lower half is untouched and the pool can grow
+        assertTrue(memory.get(space, handle1, 40));
+        handle2 = memory.insert(space, 40);
+        assertEquals(handle2.getAddress(), 64);
+        assertEquals(memory.getCapacity(), 128);
+    }
+
+
+    /**
+     * Test inserting a batch grows once and keeps input order
+     */
+    public void testInsertAll() {
+        memory = new MemoryManager(32);
+
+        int[] sizes = { 5, 30, 12, 60, 3 };
+        byte[][] records = new byte[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            records[i] = new byte[sizes[i]];
+            records[i][0] = (byte)(i + 1);
+        }
+
+        systemOut().clearHistory();
+        Handle[] handles = memory.insertAll(records, sizes);
+        assertFuzzyEquals(systemOut().getHistory(),
+            "Memory pool expanded to 128 bytes\n");
+        assertEquals(memory.getCapacity(), 128);
+
+        // Largest blocks were carved first
+        assertEquals(handles[3].getAddress(), 0);
+        assertEquals(handles[1].getAddress(), 64);
+        assertEquals(handles[2].getAddress(), 96);
+        assertEquals(handles[0].getAddress(), 112);
+        assertEquals(handles[4].getAddress(), 120);
+        assertEquals(memory.numFreeBytes(), 4);
+
+        for (int i = 0; i < sizes.length; i++) {
+            assertEquals(handles[i].getLength(), sizes[i]);
+            byte[] space = new byte[sizes[i]];
+            assertTrue(memory.get(space, handles[i], sizes[i]));
+            assertEquals(space[0], (byte)(i + 1));
+        }
+
+        // An empty batch does nothing
+        assertEquals(memory.insertAll(new byte[0][], new int[0]).length, 0);
+    }
+
+
+    /**
+     * Test removing a batch merges the freed blocks
+     */
+    public void testRemoveAll() {
+        memory = new MemoryManager(64);
+
+        byte[] space = new byte[8];
+        Handle[] handles = new Handle[8];
+        for (int i = 0; i < 8; i++) {
+            handles[i] = memory.insert(space, 8);
+        }
+        Handle kept = memory.insert(new byte[16], 16);
+
+        memory.removeAll(handles);
+        assertEquals(memory.numFreeBytes(), 128 - 16);
+
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "16: 80\n32: 96\n64: 0\n");
+
+        memory.remove(kept);
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "128: 0\n");
+    }
+
+
+    /**
+     * Test removing a batch only merges the freed blocks' chains
+     */
+    public void testRemoveAllOwnChains() {
+        memory = new MemoryManager(256);
+        Handle handle = memory.insert(new byte[128], 128);
+
+        // Leave two free 32 byte buddies unmerged
+        memory.split(5);
+        long merges = memory.stats().getMerges();
+
+        memory.removeAll(new Handle[] { handle });
+        assertEquals(memory.stats().getMerges(), merges);
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "32: 128 160\n64: 192\n128: 0\n");
+    }
+
+
+    /**
+     * Test batches of small records in slabs
+     */
+    public void testBatchSlabs() {
+        memory = new MemoryManager(1024);
+        memory.enableSlabs(8);
+
+        int[] sizes = { 20, 20, 200, 20 };
+        byte[][] records = new byte[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            records[i] = new byte[sizes[i]];
+        }
+
+        Handle[] handles = memory.insertAll(records, sizes);
+        assertEquals(handles[2].getAddress(), 0);
+        assertEquals(handles[0].getAddress(), 256);
+        assertEquals(handles[1].getAddress(), 288);
+        assertEquals(memory.numFreeBytes(), 512);
+
+        memory.removeAll(handles);
+        assertEquals(memory.numFreeBytes(), 1024);
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "1024: 0\n");
+    }
+
+
+    /**
+     * Test moving records to the lowest free block
+     */
+    public void testRelocate() {
+        memory = new MemoryManager(128);
+
+        byte[] space = new byte[32];
+        Handle handle1 = memory.insert(space, 32);
+        Handle handle2 = memory.insert(space, 32);
+        space[0] = 9;
+        Handle handle3 = memory.insert(space, 32);
+        assertEquals(handle3.getAddress(), 64);
+
+        // Nothing free below the record
+        assertSame(memory.relocate(handle1), handle1);
+
+        memory.remove(handle1);
+        memory.remove(handle2);
+        Handle moved = memory.relocate(handle3);
+        assertEquals(moved.getAddress(), 0);
+        assertEquals(moved.getLength(), 32);
+        assertEquals(memory.numFreeBytes(), 96);
+
+        byte[] result = new byte[32];
+        assertTrue(memory.get(result, moved, 32));
+        assertEquals(result[0], 9);
+
+        // Free space is back in one large block
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "32: 32\n64: 64\n");
+
+        // Already as low as it goes
+        assertSame(memory.relocate(moved), moved);
+    }
+
+
+    /**
+     * Test the occupancy and fragmentation snapshot
+     */
+    public void testStats() {
+        memory = new MemoryManager(128);
+
+        PoolStats stats = memory.stats();
+        assertEquals(stats.getCapacity(), 128);
+        assertEquals(stats.getFreeBytes(), 128);
+        assertEquals(stats.getLargestFree(), 128);
+        assertEquals(stats.getFreeBlocks(7), 1);
+        assertEquals(stats.getRequestedBytes(), 0L);
+
+        byte[] space = new byte[100];
+        Handle handle1 = memory.insert(space, 20);
+        Handle handle2 = memory.insert(space, 100);
+
+        stats = memory.stats();
+        assertEquals(stats.getCapacity(), 256);
+        assertEquals(stats.getResizes(), 1);
+        assertEquals(stats.getUsedBlocks(5), 1);
+        assertEquals(stats.getUsedBlocks(7), 1);
+        assertEquals(stats.getFreeBlocks(5), 1);
+        assertEquals(stats.getFreeBlocks(6), 1);
+        assertEquals(stats.getRequestedBytes(), 120L);
+        assertEquals(stats.getAllocatedBytes(), 160L);
+        assertEquals(stats.getLargestFree(), 64);
+        assertEquals(stats.getSplits(), 2L);
+
+        // 40 of 160 allocated bytes lost to rounding
+        assertEquals(stats.getInternalFragmentation(), 0.25, 0.0001);
+        // 32 of 96 free bytes outside the largest free block
+        assertEquals(stats.getExternalFragmentation(), 1.0 / 3, 0.0001);
+
+        memory.remove(handle1);
+        memory.remove(handle2);
+        stats = memory.stats();
+        assertEquals(stats.getUsedBlocks(5), 0);
+        assertEquals(stats.getUsedBlocks(7), 0);
+        assertEquals(stats.getFreeBlocks(8), 1);
+        assertEquals(stats.getAllocatedBytes(), 0L);
+        assertEquals(stats.getMerges(), 3L);
+        assertEquals(stats.getExternalFragmentation(), 0.0, 0.0001);
+    }
+
+
+    /**
+     * Test slots and moves in the snapshot
+     */
+    public void testStatsSlabsAndMoves() {
+        memory = new MemoryManager(1024);
+        memory.enableSlabs(8);
+
+        byte[] space = new byte[300];
+        Handle small = memory.insert(space, 20);
+        Handle big1 = memory.insert(space, 300);
+        Handle big2 = memory.insert(space, 300);
+
+        PoolStats stats = memory.stats();
+        assertEquals(stats.getRequestedBytes(), 620L);
+        assertEquals(stats.getAllocatedBytes(), 32L + 1024);
+
+        memory.remove(big1);
+        memory.remove(small);
+        memory.relocate(big2);
+        stats = memory.stats();
+        assertEquals(stats.getBytesCopied(), 300L);
+        assertEquals(stats.getAllocatedBytes(), 512L);
+        assertEquals(stats.getUsedBlocks(9), 1);
+    }
+
+
+    /**
+     * Test automatic shrinking after removes
+     */
+    public void testAutoShrink() {
+        memory = new MemoryManager(32);
+        memory.setShrinkWatermark(0.25);
+
+        byte[] space = new byte[8];
+        Handle[] handles = new Handle[8];
+        for (int i = 0; i < 8; i++) {
+            handles[i] = memory.insert(space, 8);
+        }
+        assertEquals(memory.getCapacity(), 64);
+
+        systemOut().clearHistory();
+        for (int i = 7; i >= 2; i--) {
+            memory.remove(handles[i]);
+            assertEquals(memory.getCapacity(), 64);
+        }
+
+        // Hysteresis: nothing happened until only 8 bytes were left
+        memory.remove(handles[1]);
+        assertEquals(memory.getCapacity(), 32);
+        assertEquals(memory.numFreeBytes(), 24);
+        assertFuzzyEquals(systemOut().getHistory(),
+            "Memory pool shrunk to 32 bytes\n");
+
+        memory.remove(handles[0]);
+        assertEquals(memory.getCapacity(), 32);
+        assertEquals(memory.numFreeBytes(), 32);
+
+        Exception thrown = null;
+        try {
+            memory.setShrinkWatermark(0.75);
+        }
+        catch (IllegalArgumentException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+    }
+
+
+    /**
+     * Test many threads inserting, reading and removing at once
+     * Every record is checked before it is removed
+     * 
+     * @throws InterruptedException
+     */
+    public void testConcurrentStress() throws InterruptedException {
+        memory = new MemoryManager(256);
+
+        int threadCount = 8;
+        Thread[] threads = new Thread[threadCount];
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int t = 0; t < threadCount; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    stressWorker(id, 5000);
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(memory.numFreeBytes(), memory.getCapacity());
+
+        systemOut().clearHistory();
+        memory.print();
+        String actual = systemOut().getHistory();
+        String expected = "Freeblock List:\n" + memory.getCapacity()
+            + ": 0\n";
+        assertFuzzyEquals(actual, expected);
+    }
+
+
+    /**
+     * Test the stress workload while the pool grows and shrinks
+     * Splits and merges run side by side with resizes
+     *
+     * @throws InterruptedException
+     */
+    public void testConcurrentShrinking() throws InterruptedException {
+        memory = new MemoryManager(256);
+        memory.setShrinkWatermark(0.25);
+
+        int threadCount = 8;
+        Thread[] threads = new Thread[threadCount];
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int t = 0; t < threadCount; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    stressWorker(id, 5000);
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        // Everything merged back and the pool shrank to its start
+        assertEquals(memory.getCapacity(), 256);
+        assertEquals(memory.numFreeBytes(), 256);
+        PoolStats stats = memory.stats();
+        for (int k = 0; k <= 8; k++) {
+            assertEquals(stats.getUsedBlocks(k), 0);
+        }
+        assertEquals(stats.getFreeBlocks(8), 1);
+    }
+
+
+    /**
+     * Test the stress workload with per-thread magazines
+     *
+     * @throws InterruptedException
+     */
+    public void testConcurrentMagazines() throws InterruptedException {
+        memory = new MemoryManager(256);
+        memory.enableMagazines(4, 7, 8);
+
+        int threadCount = 8;
+        Thread[] threads = new Thread[threadCount];
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int t = 0; t < threadCount; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    stressWorker(id, 5000);
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        // Everything cached goes back and merges
+        memory.drainMagazines();
+        assertEquals(memory.numFreeBytes(), memory.getCapacity());
+    }
+
+
+    /**
+     * One thread of the stress test
+     * 
+     * @param id
+     *            The thread number, used in the record bytes
+     * @param ops
+     *            The number of inserts to do
+     */
+    private void stressWorker(int id, int ops) {
+        Random random = new Random(id);
+        Handle[] live = new Handle[16];
+        byte[][] records = new byte[16][];
+
+        for (int i = 0; i < ops; i++) {
+            int slot = random.nextInt(live.length);
+
+            if (live[slot] != null) {
+                // Check and free the old record in this slot
+                byte[] space = new byte[records[slot].length];
+                assertTrue(memory.get(space, live[slot], space.length));
+                for (int j = 0; j < space.length; j++) {
+                    assertEquals(space[j], records[slot][j]);
+                }
+                memory.remove(live[slot]);
+            }
+
+            byte[] record = new byte[1 + random.nextInt(200)];
+            for (int j = 0; j < record.length; j++) {
+                record[j] = (byte)(id * 31 + i + j);
+            }
+            live[slot] = memory.insert(record, record.length);
+            records[slot] = record;
+        }
+
+        for (int slot = 0; slot < live.length; slot++) {
+            memory.remove(live[slot]);
+        }
+    }
+
+
+    /**
+     * Test inserts and removes served from a magazine
+     */
+    public void testMagazines() {
+        memory = new MemoryManager(1024);
+        memory.enableMagazines(6, 7, 4);
+
+        byte[] space = new byte[100];
+
+        // First insert takes two 128 blocks, caches one
+        Handle handle1 = memory.insert(space, 100);
+        assertEquals(handle1.getAddress(), 0);
+        assertEquals(memory.numFreeBytes(), 768);
+
+        // Served from the magazine, free block list untouched
+        Handle handle2 = memory.insert(space, 100);
+        assertEquals(handle2.getAddress(), 128);
+        assertEquals(memory.numFreeBytes(), 768);
+
+        // Removes go to the magazine, and come straight back
+        memory.remove(handle1);
+        assertEquals(memory.numFreeBytes(), 768);
+        handle1 = memory.insert(space, 100);
+        assertEquals(handle1.getAddress(), 0);
+
+        // Sizes that are not hot use the free block list
+        Handle handle3 = memory.insert(space, 20);
+        assertEquals(handle3.getAddress(), 256);
+        memory.remove(handle3);
+        assertEquals(memory.numFreeBytes(), 768);
+
+        memory.remove(handle1);
+        memory.remove(handle2);
+        memory.drainMagazines();
+        assertEquals(memory.numFreeBytes(), 1024);
+
+        systemOut().clearHistory();
+        memory.print();
+        String actual = systemOut().getHistory();
+        String expected = "Freeblock List:\n" + "1024: 0\n";
+        assertFuzzyEquals(actual, expected);
+    }
+
+
+    /**
+     * Test magazines must hold at least two blocks
+     */
+    public void testMagazineSize() {
+        Exception thrown = null;
+        try {
+            memory.enableMagazines(6, 7, 1);
+        }
+        catch (IllegalArgumentException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+        assertEquals(memory.numMagazines(), 0);
+    }
+
+
+    /**
+     * Test draining drops the magazines of finished threads
+     *
+     * @throws InterruptedException
+     */
+    public void testMagazinesOfDeadThreads() throws InterruptedException {
+        memory = new MemoryManager(1024);
+        memory.enableMagazines(6, 7, 4);
+
+        Thread worker = new Thread(() -> {
+            Handle handle = memory.insert(new byte[100], 100);
+            memory.remove(handle);
+        });
+        worker.start();
+        worker.join();
+
+        // The worker's two blocks are still cached
+        memory.insert(new byte[100], 100);
+        assertEquals(memory.numMagazines(), 2);
+        assertEquals(memory.numFreeBytes(), 1024 - 256 - 256);
+
+        memory.drainMagazines();
+        assertEquals(memory.numMagazines(), 1);
+        assertEquals(memory.numFreeBytes(), 1024 - 128);
+    }
+
+
+    /**
+     * Test magazines are drained before the pool grows
+     */
+    public void testMagazinesDrainBeforeResize() {
+        memory = new MemoryManager(256);
+        memory.enableMagazines(6, 6, 4);
+
+        byte[] space = new byte[128];
+        Handle handle1 = memory.insert(space, 64);
+        memory.remove(handle1);
+
+        // Cached 64 blocks are needed to fit 256 bytes
+        assertEquals(memory.numFreeBytes(), 128);
+        systemOut().clearHistory();
+        Handle handle2 = memory.insert(space, 128);
+        Handle handle3 = memory.insert(space, 128);
+        assertEquals(handle2.getAddress(), 128);
+        assertEquals(handle3.getAddress(), 0);
+        assertEquals(memory.getCapacity(), 256);
+        assertFuzzyEquals(systemOut().getHistory(), "");
+    }
+
+
+    /**
+     * Test small records packed into slabs
+     */
+    public void testSlabs() {
+        memory = new MemoryManager(4096);
+        memory.enableSlabs(10);
+
+        byte[] record = new byte[129];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = (byte)(i + 1);
+        }
+
+        // One 1 KB slab holds seven 129 byte records
+        Handle[] handles = new Handle[7];
+        for (int i = 0; i < 7; i++) {
+            handles[i] = memory.insert(record, 129);
+            assertEquals(handles[i].getAddress(), i * 144);
+        }
+        assertEquals(memory.numFreeBytes(), 3072);
+
+        byte[] space = new byte[129];
+        assertTrue(memory.get(space, handles[3], 129));
+        for (int i = 0; i < space.length; i++) {
+            assertEquals(space[i], (byte)(i + 1));
+        }
+
+        // Large records still use buddy blocks
+        Handle big = memory.insert(record, 129);
+        assertEquals(big.getAddress(), 1024);
+        Handle huge = memory.insert(new byte[600], 600);
+        assertEquals(huge.getAddress(), 2048);
+        memory.remove(huge);
+        assertEquals(memory.numFreeBytes(), 2048);
+
+        // Emptying the slabs gives their blocks back
+        memory.remove(big);
+        for (int i = 0; i < 7; i++) {
+            memory.remove(handles[i]);
+        }
+        assertEquals(memory.numFreeBytes(), 4096);
+
+        systemOut().clearHistory();
+        memory.print();
+        String actual = systemOut().getHistory();
+        String expected = "Freeblock List:\n" + "4096: 0\n";
+        assertFuzzyEquals(actual, expected);
+    }
+
+
+    /**
+     * Test slabs use far fewer pool bytes on a large corpus
+     */
+    public void testSlabsSaveSpace() {
+        Random random = new Random(1);
+        int[] sizes = new int[20000];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = 60 + random.nextInt(341);
+        }
+
+        MemoryManager buddy = new MemoryManager(1 << 16);
+        MemoryManager slab = new MemoryManager(1 << 16);
+        slab.enableSlabs(12);
+
+        byte[] space = new byte[400];
+        for (int size : sizes) {
+            buddy.insert(space, size);
+            slab.insert(space, size);
+        }
+
+        long buddyUsed = buddy.getCapacity() - buddy.numFreeBytes();
+        long slabUsed = slab.getCapacity() - slab.numFreeBytes();
+        assertTrue(slabUsed * 4 < buddyUsed * 3);
+    }
+
+
     /**
      * Capstone test for MemoryManager
      */
@@ -1336,4 +2147,532 @@ public class MemoryManagerTest extends TestCase {
         assertFuzzyEquals(actual, expected);
     }
 
+
+    /**
+     * Test copying a record down leaves the old one in place
+     */
+    public void testCopyLower() {
+        memory = new MemoryManager(64);
+
+        byte[] record = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+        Handle first = memory.insert(record, 10);
+        Handle second = memory.insert(record, 10);
+        memory.remove(first);
+
+        Handle copy = memory.copyLower(second);
+        assertEquals(copy.getAddress(), 0L);
+        assertEquals(memory.numFreeBytes(), 32L);
+
+        // Both hold the bytes until the old one is removed
+        byte[] space = new byte[10];
+        assertTrue(memory.get(space, second, 10));
+        assertEquals(space[9], 10);
+        assertTrue(memory.get(space, copy, 10));
+        assertEquals(space[9], 10);
+
+        memory.remove(second);
+        assertEquals(memory.numFreeBytes(), 48L);
+        assertEquals(memory.stats().getRequestedBytes(), 10L);
+
+        // Nothing lower
+        assertSame(memory.copyLower(copy), copy);
+    }
+
+
+    /**
+     * Test rewriting records in place and moving them when needed
+     */
+    public void testRealloc() {
+        memory = new MemoryManager(128);
+
+        byte[] record = new byte[60];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = (byte)(i + 1);
+        }
+
+        // Same block
+        Handle handle = memory.insert(record, 20);
+        handle = memory.realloc(handle, record, 30);
+        assertEquals(handle.getAddress(), 0L);
+        assertEquals(handle.getLength(), 30);
+        assertEquals(memory.numFreeBytes(), 96L);
+
+        // Takes in its free buddy
+        handle = memory.realloc(handle, record, 60);
+        assertEquals(handle.getAddress(), 0L);
+        assertEquals(memory.numFreeBytes(), 64L);
+        byte[] space = new byte[60];
+        assertTrue(memory.get(space, handle, 60));
+        assertEquals(space[59], 60);
+
+        // Gives back its upper halves
+        handle = memory.realloc(handle, record, 10);
+        assertEquals(handle.getAddress(), 0L);
+        assertEquals(memory.numFreeBytes(), 112L);
+
+        systemOut().clearHistory();
+        memory.print();
+        String actual = systemOut().getHistory();
+        String expected = "Freeblock List:\n" + "16: 16\n" + "32: 32\n"
+            + "64: 64\n";
+        assertFuzzyEquals(actual, expected);
+
+        // Buddy is used, so the record moves
+        Handle other = memory.insert(record, 16);
+        handle = memory.realloc(handle, record, 30);
+        assertEquals(other.getAddress(), 16L);
+        assertEquals(handle.getAddress(), 32L);
+        assertEquals(memory.numFreeBytes(), 80L);
+
+        space = new byte[30];
+        assertTrue(memory.get(space, handle, 30));
+        assertEquals(space[29], 30);
+
+        systemOut().clearHistory();
+        memory.print();
+        actual = systemOut().getHistory();
+        expected = "Freeblock List:\n" + "16: 0\n" + "64: 64\n";
+        assertFuzzyEquals(actual, expected);
+    }
+
+
+    /**
+     * Test rewriting records kept in slabs
+     */
+    public void testReallocSlabs() {
+        memory = new MemoryManager(256);
+        memory.enableSlabs(7);
+
+        byte[] record = new byte[40];
+        Handle handle = memory.insert(record, 20);
+
+        // Same slot size stays put
+        Handle same = memory.realloc(handle, record, 24);
+        assertEquals(same.getAddress(), handle.getAddress());
+
+        // A larger slot moves the record
+        Handle moved = memory.realloc(same, record, 40);
+        assertEquals(moved.getLength(), 40);
+        assertEquals(memory.stats().getRequestedBytes(), 40L);
+    }
+
+
+    /**
+     * Test a pool counted in 1 MB units grows past 4 GB
+     */
+    public void testLargeUnits() {
+        memory = new MemoryManager(new EmptyPool(1 << 30), 20);
+        assertEquals(memory.getCapacity(), 1L << 30);
+
+        byte[] record = new byte[0];
+        Handle[] handles = new Handle[4];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = memory.insert(record, 1 << 30);
+        }
+
+        // Addresses past the range of an int
+        assertEquals(memory.getCapacity(), 1L << 32);
+        assertEquals(handles[3].getAddress(), 3L << 30);
+        assertEquals(memory.numFreeBytes(), 0L);
+
+        // A small record still takes a whole unit
+        memory.remove(handles[3]);
+        Handle small = memory.insert(record, 10);
+        assertEquals(small.getAddress(), 3L << 30);
+        assertEquals(memory.numFreeBytes(), (1L << 30) - (1 << 20));
+
+        memory.remove(small);
+        memory.remove(handles[1]);
+        systemOut().clearHistory();
+        memory.print();
+        String actual = systemOut().getHistory();
+        String expected = "Freeblock List:\n" + "1073741824: 1073741824 "
+            + "3221225472\n";
+        assertFuzzyEquals(actual, expected);
+    }
+
+
+    /**
+     * Test the limits of a pool counted in units
+     */
+    public void testUnitLimits() {
+        memory = new MemoryManager(new EmptyPool(1 << 30), 0);
+
+        Exception thrown = null;
+        try {
+            memory.insert(new byte[0], 1 << 30);
+            memory.insert(new byte[0], 1 << 30);
+        }
+        catch (IllegalStateException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+
+        // Too many positions for the unit
+        thrown = null;
+        try {
+            memory = new MemoryManager(new EmptyPool(1L << 31), 0);
+        }
+        catch (IllegalArgumentException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+        memory = new MemoryManager(new EmptyPool(1L << 31), 1);
+        assertEquals(memory.getCapacity(), 1L << 31);
+
+        // Less than one unit, or not a power of two units
+        long[][] bad = { { 8, 4 }, { 48, 4 }, { 64, 70 } };
+        for (long[] run : bad) {
+            thrown = null;
+            try {
+                new MemoryManager(new EmptyPool(run[0]), (int)run[1]);
+            }
+            catch (IllegalArgumentException e) {
+                thrown = e;
+            }
+            assertNotNull(thrown);
+        }
+
+        memory = new MemoryManager(new EmptyPool(64), 2);
+        thrown = null;
+        try {
+            memory.enableSlabs(8);
+        }
+        catch (IllegalStateException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+    }
+
+
+    /**
+     * Test sampling the work of inserts and removes
+     */
+    public void testTracing() {
+        memory = new MemoryManager(64);
+        assertNull(memory.getTracer());
+        memory.enableTracing(16, 1);
+
+        // Two splits, then a resize, then two merges
+        Handle handle = memory.insert(new byte[10], 10);
+        memory.insert(new byte[40], 40);
+        memory.remove(handle);
+
+        systemOut().clearHistory();
+        memory.getTracer().print();
+        String actual = systemOut().getHistory();
+        String expected = "Allocation trace: 3 of 3 samples\n"
+            + "block: inserts splits removes merges resizes largest\n"
+            + "16: 1 2 1 2 0 10\n" + "64: 1 0 0 0 1 40\n";
+        assertFuzzyEquals(actual, expected);
+
+        memory.disableTracing();
+        memory.insert(new byte[10], 10);
+        assertNull(memory.getTracer());
+    }
+
+
+    /**
+     * Test a growth policy grows further in one step
+     */
+    public void testGrowthPolicy() {
+        memory = new MemoryManager(64);
+        memory.setGrowthPolicy(new GrowthPolicy(4, 0));
+
+        systemOut().clearHistory();
+        memory.insert(new byte[100], 100);
+        assertEquals(systemOut().getHistory(),
+            "Memory pool expanded to 256 bytes\n");
+
+        // Three quarters of the pool free after growing
+        memory = new MemoryManager(64);
+        memory.setGrowthPolicy(new GrowthPolicy(2, 0.75));
+        memory.insert(new byte[40], 40);
+        memory.insert(new byte[40], 40);
+        assertEquals(memory.getCapacity(), 256L);
+        assertEquals(memory.numFreeBytes(), 128L);
+    }
+
+
+    /**
+     * Test sizing the pool up front for the records to come
+     */
+    public void testPresize() {
+        memory = new MemoryManager(64);
+        int[] sizes = { 100, 20, 20, 300 };
+
+        systemOut().clearHistory();
+        memory.presize(sizes);
+        assertEquals(systemOut().getHistory(),
+            "Memory pool expanded to 1024 bytes\n");
+
+        // Loading needs no more resizes
+        systemOut().clearHistory();
+        for (int size : sizes) {
+            memory.insert(new byte[size], size);
+        }
+        assertEquals(systemOut().getHistory(), "");
+        assertEquals(memory.stats().getResizes(), 1);
+
+        // Already large enough
+        memory.presize(sizes);
+        assertEquals(memory.getCapacity(), 2048L);
+
+        // From the stats of a previous run
+        MemoryManager next = new MemoryManager(32);
+        next.presize(memory.stats());
+        assertEquals(next.getCapacity(), 2048L);
+    }
+
+
+    /**
+     * Test presizing leaves out large records and counts slabs
+     */
+    public void testPresizeLargeAndSlabs() {
+        memory = new MemoryManager(64);
+        memory.enableLargeObjects(1000, false);
+        memory.presize(new int[] { 2000, 3000 });
+        assertEquals(memory.getCapacity(), 64L);
+
+        // Five 80 byte records share two 256 byte slabs, not five
+        // 128 byte blocks
+        memory = new MemoryManager(64);
+        memory.enableSlabs(8);
+        int[] sizes = { 80, 80, 80, 80, 80 };
+        systemOut().clearHistory();
+        memory.presize(sizes);
+        assertEquals(systemOut().getHistory(),
+            "Memory pool expanded to 512 bytes\n");
+
+        systemOut().clearHistory();
+        for (int size : sizes) {
+            memory.insert(new byte[size], size);
+        }
+        assertEquals(systemOut().getHistory(), "");
+    }
+
+
+    /**
+     * Test large records bypass the free block list
+     */
+    public void testLargeObjects() {
+        memory = new MemoryManager(64);
+        assertNull(memory.getLargeObjects());
+        memory.enableLargeObjects(100, false);
+
+        byte[] big = new byte[1000];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte)i;
+        }
+
+        // No resize and the pool is untouched
+        systemOut().clearHistory();
+        Handle handle = memory.insert(big, 1000);
+        Handle small = memory.insert(new byte[10], 10);
+        assertEquals(systemOut().getHistory(), "");
+        assertTrue(handle.isLarge());
+        assertFalse(small.isLarge());
+        assertEquals(memory.getCapacity(), 64L);
+        assertEquals(memory.numFreeBytes(), 48L);
+        assertEquals(memory.getLargeObjects().getCount(), 1);
+
+        byte[] space = new byte[1000];
+        assertTrue(memory.get(space, handle, 1000));
+        assertEquals(space[999], big[999]);
+        assertEquals(memory.view(handle).get(500), big[500]);
+        assertEquals(memory.stats().getRequestedBytes(), 1010L);
+        assertEquals(memory.stats().getAllocatedBytes(), 1016L);
+
+        // Never moved by compaction
+        assertSame(memory.relocate(handle), handle);
+        assertSame(memory.copyLower(handle), handle);
+
+        // Shrinks in its buffer, moves into the pool when small
+        Handle smaller = memory.realloc(handle, big, 800);
+        assertEquals(smaller.getAddress(), handle.getAddress());
+        assertEquals(memory.getLargeObjects().getBytes(), 1000L);
+        assertEquals(memory.stats().getRequestedBytes(), 810L);
+        assertEquals(memory.stats().getAllocatedBytes(), 1016L);
+        Handle moved = memory.realloc(smaller, big, 20);
+        assertFalse(moved.isLarge());
+        assertEquals(memory.getLargeObjects().getCount(), 0);
+
+        // Batches split between the pool and the store
+        byte[][] records = { new byte[10], big, new byte[20] };
+        int[] sizes = { 10, 1000, 20 };
+        Handle[] handles = memory.insertAll(records, sizes);
+        assertFalse(handles[0].isLarge());
+        assertTrue(handles[1].isLarge());
+        assertEquals(handles[2].getLength(), 20);
+        memory.removeAll(handles);
+        assertEquals(memory.getLargeObjects().getCount(), 0);
+
+        memory.remove(small);
+        memory.remove(moved);
+        assertEquals(memory.numFreeBytes(), memory.getCapacity());
+        assertEquals(memory.stats().getRequestedBytes(), 0L);
+
+        memory.insert(big, 1000);
+        memory.clear();
+        assertEquals(memory.getLargeObjects().getCount(), 0);
+    }
+
+
+    /**
+     * Test a mapped pool refuses the large object path
+     * 
+     * @throws IOException
+     */
+    public void testLargeObjectsMapped() throws IOException {
+        File file = File.createTempFile("largeobjects", ".bin");
+        file.delete();
+        MappedPool pool = new MappedPool(file, 64);
+        memory = new MemoryManager(pool);
+
+        Exception thrown = null;
+        try {
+            memory.enableLargeObjects(100, false);
+        }
+        catch (IllegalStateException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+        assertNull(memory.getLargeObjects());
+
+        pool.close();
+        file.delete();
+    }
+
+
+    /**
+     * Test a mapped pool refuses slabs it could not reopen
+     *
+     * @throws IOException
+     */
+    public void testSlabsMapped() throws IOException {
+        File file = File.createTempFile("slabs", ".bin");
+        file.delete();
+        MappedPool pool = new MappedPool(file, 64);
+        memory = new MemoryManager(pool);
+
+        Exception thrown = null;
+        try {
+            memory.enableSlabs(12);
+        }
+        catch (IllegalStateException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+
+        // Records still take buddy blocks
+        Handle handle = memory.insert(new byte[20], 20);
+        assertEquals(memory.numFreeBytes(), 32);
+        memory.remove(handle);
+
+        pool.close();
+        file.delete();
+    }
+
+
+    /**
+     * A pool that keeps no bytes, so very large capacities can be tested
+     */
+    private static class EmptyPool implements MemoryPool {
+
+        // The capacity claimed
+        private long capacity;
+
+        /**
+         * Constructor for EmptyPool
+         *
+         * @param capacity
+         *            The initial capacity
+         */
+        EmptyPool(long capacity) {
+            this.capacity = capacity;
+        }
+
+
+        @Override
+        public void write(long address, byte[] src, int length) {
+            // Nothing is kept
+        }
+
+
+        @Override
+        public void read(long address, byte[] dst, int length) {
+            // Nothing is kept
+        }
+
+
+        @Override
+        public int getInt(long address) {
+            return 0;
+        }
+
+
+        @Override
+        public void putInt(long address, int value) {
+            // Nothing is kept
+        }
+
+
+        @Override
+        public ByteBuffer view(long address, int length) {
+            return ByteBuffer.allocate(length).asReadOnlyBuffer();
+        }
+
+
+        @Override
+        public void grow(long newCapacity) {
+            capacity = newCapacity;
+        }
+
+
+        @Override
+        public void shrink(long newCapacity) {
+            capacity = newCapacity;
+        }
+
+
+        @Override
+        public long getCapacity() {
+            return capacity;
+        }
+    }
+
+
+    /**
+     * Test freeing every record at once
+     */
+    public void testClear() {
+        memory = new MemoryManager(64);
+        memory.enableMagazines(4, 5, 4);
+        memory.enableSlabs(7);
+
+        byte[] record = new byte[100];
+        memory.insert(record, 100);
+        memory.insert(record, 20);
+        Handle cached = memory.insert(record, 30);
+        memory.insert(record, 8);
+        memory.remove(cached);
+        assertEquals(memory.getCapacity(), 512L);
+
+        memory.clear();
+        assertEquals(memory.getCapacity(), 512L);
+        assertEquals(memory.numFreeBytes(), 512L);
+        assertEquals(memory.stats().getRequestedBytes(), 0L);
+        assertEquals(memory.stats().getUsedBlocks(7), 0);
+
+        systemOut().clearHistory();
+        memory.print();
+        String actual = systemOut().getHistory();
+        assertFuzzyEquals(actual, "Freeblock List:\n512: 0\n");
+
+        // Reloading does not resize
+        systemOut().clearHistory();
+        Handle handle = memory.insert(record, 100);
+        assertEquals(systemOut().getHistory(), "");
+        assertEquals(handle.getAddress(), 0L);
+    }
 }
@@ -0,0 +1,116 @@
+import java.nio.ByteBuffer;
+
+/**
+ * This interface represents the bytes behind a memory manager.
+ * The memory manager decides where records go, a pool only
+ * stores and returns the bytes. Addresses are longs so a pool may
+ * be larger than 2 GB.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public interface MemoryPool {
+
+    /**
+     * Copy bytes from src into the pool
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param src
+     *            The array to copy from
+     * @param length
+     *            The number of bytes to copy
+     */
+    void write(long address, byte[] src, int length);
+
+
+    /**
+     * Copy bytes from the pool into dst
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param dst
+     *            The array to copy into
+     * @param length
+     *            The number of bytes to copy
+     */
+    void read(long address, byte[] dst, int length);
+
+
+    /**
+     * Read a four byte int from the pool
+     *
+     * @param address
+     *            The byte address, a multiple of four
+     * @return the int
+     */
+    int getInt(long address);
+
+
+    /**
+     * Write a four byte int into the pool
+     *
+     * @param address
+     *            The byte address, a multiple of four
+     * @param value
+     *            The int to write
+     */
+    void putInt(long address, int value);
+
+
+    /**
+     * Return a read-only view of bytes in the pool
+     * The view shares the pool's bytes where it can, so it is only
+     * good until the record it covers is removed
+     *
+     * @param address
+     *            The starting byte address in the pool
+     * @param length
+     *            The number of bytes to view
+     * @return a read-only buffer from position 0 to length
+     */
+    ByteBuffer view(long address, int length);
+
+
+    /**
+     * Grow the pool, keeping the current contents
+     *
+     * @param newCapacity
+     *            The new capacity in bytes
+     */
+    void grow(long newCapacity);
+
+
+    /**
+     * Shrink the pool, dropping everything above the new capacity
+     *
+     * @param newCapacity
+     *            The new capacity in bytes
+     */
+    void shrink(long newCapacity);
+
+
+    /**
+     * Give back the memory behind a range that holds no records
+     * The range may read as zeros afterwards. Pools that cannot give
+     * memory back do nothing.
+     *
+     * @param address
+     *            The starting byte address of the range
+     * @param length
+     *            The number of bytes in the range
+     */
+    default void decommit(long address, long length) {
+        // Nothing to give back
+    }
+
+
+    /**
+     * Return the capacity
+     *
+     * @return capacity in bytes
+     */
+    long getCapacity();
+
+}
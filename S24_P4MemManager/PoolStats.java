@@ -0,0 +1,275 @@
+/**
+ * This class is a snapshot of a memory manager's pool.
+ * It shows how full the pool is, how much space is lost to rounding
+ * records up to blocks (internal fragmentation) and how much free
+ * space is cut into blocks too small to use (external
+ * fragmentation), along with counts of the work the manager did.
+ *
+ * Blocks cached in magazines and slabs count as used, the same as
+ * in MemoryManager.numFreeBytes.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class PoolStats {
+
+    // Pool size in bytes
+    private long capacity;
+
+    // Bytes on the free block list
+    private long freeBytes;
+
+    // Per blockN: free blocks and blocks in use
+    private int[] freeBlocks;
+    private int[] usedBlocks;
+
+    // Record lengths and the space they really take
+    private long requestedBytes;
+    private long allocatedBytes;
+
+    // Size of the largest free block, 0 if none
+    private long largestFree;
+
+    // Work done since the manager was made
+    private int resizes;
+    private int shrinks;
+    private long bytesCopied;
+    private long splits;
+    private long merges;
+
+    /**
+     * Constructor for PoolStats
+     *
+     * @param capacity
+     *            The pool size in bytes
+     * @param freeBytes
+     *            The bytes on the free block list
+     * @param freeBlocks
+     *            The free blocks per blockN
+     * @param usedBlocks
+     *            The blocks in use per blockN
+     * @param requestedBytes
+     *            The total length of live records
+     * @param allocatedBytes
+     *            The total size of the blocks and slots they take
+     * @param largestFree
+     *            The size of the largest free block, 0 if none
+     * @param resizes
+     *            The number of times the pool grew
+     * @param shrinks
+     *            The number of times the pool shrank
+     * @param bytesCopied
+     *            The record bytes moved inside the pool
+     * @param splits
+     *            The number of blocks split in two
+     * @param merges
+     *            The number of buddy pairs merged
+     */
+    public PoolStats(
+        long capacity,
+        long freeBytes,
+        int[] freeBlocks,
+        int[] usedBlocks,
+        long requestedBytes,
+        long allocatedBytes,
+        long largestFree,
+        int resizes,
+        int shrinks,
+        long bytesCopied,
+        long splits,
+        long merges) {
+        this.capacity = capacity;
+        this.freeBytes = freeBytes;
+        this.freeBlocks = freeBlocks;
+        this.usedBlocks = usedBlocks;
+        this.requestedBytes = requestedBytes;
+        this.allocatedBytes = allocatedBytes;
+        this.largestFree = largestFree;
+        this.resizes = resizes;
+        this.shrinks = shrinks;
+        this.bytesCopied = bytesCopied;
+        this.splits = splits;
+        this.merges = merges;
+    }
+
+
+    /**
+     * Return the pool size
+     *
+     * @return capacity in bytes
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Return the bytes on the free block list
+     *
+     * @return free bytes
+     */
+    public long getFreeBytes() {
+        return freeBytes;
+    }
+
+
+    /**
+     * Return the number of free blocks of a blockN
+     *
+     * @param blockN
+     *            The blockN, blocks are 2^blockN bytes
+     * @return the number of free blocks
+     */
+    public int getFreeBlocks(int blockN) {
+        return blockN < freeBlocks.length ? freeBlocks[blockN] : 0;
+    }
+
+
+    /**
+     * Return the number of blocks of a blockN in use
+     *
+     * @param blockN
+     *            The blockN
+     * @return the number of used blocks
+     */
+    public int getUsedBlocks(int blockN) {
+        return blockN < usedBlocks.length ? usedBlocks[blockN] : 0;
+    }
+
+
+    /**
+     * Return the total length of live records
+     *
+     * @return requested bytes
+     */
+    public long getRequestedBytes() {
+        return requestedBytes;
+    }
+
+
+    /**
+     * Return the total size of the blocks and slots records take
+     *
+     * @return allocated bytes
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+
+    /**
+     * Return the size of the largest block that can be taken
+     * without growing the pool
+     *
+     * @return the size, 0 if nothing is free
+     */
+    public long getLargestFree() {
+        return largestFree;
+    }
+
+
+    /**
+     * Return the share of allocated bytes lost to rounding up
+     *
+     * @return a fraction from 0 to 1
+     */
+    public double getInternalFragmentation() {
+        if (allocatedBytes == 0) {
+            return 0;
+        }
+        return 1 - (double)requestedBytes / allocatedBytes;
+    }
+
+
+    /**
+     * Return the share of free bytes outside the largest free block
+     *
+     * @return a fraction from 0 to 1
+     */
+    public double getExternalFragmentation() {
+        if (freeBytes == 0) {
+            return 0;
+        }
+        return 1 - (double)largestFree / freeBytes;
+    }
+
+
+    /**
+     * Return the number of times the pool grew
+     *
+     * @return resizes
+     */
+    public int getResizes() {
+        return resizes;
+    }
+
+
+    /**
+     * Return the number of times the pool shrank
+     *
+     * @return shrinks
+     */
+    public int getShrinks() {
+        return shrinks;
+    }
+
+
+    /**
+     * Return the record bytes moved inside the pool
+     * Growing never copies, so these come from compaction
+     *
+     * @return bytes copied
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+
+    /**
+     * Return the number of blocks split in two
+     *
+     * @return splits
+     */
+    public long getSplits() {
+        return splits;
+    }
+
+
+    /**
+     * Return the number of buddy pairs merged
+     *
+     * @return merges
+     */
+    public long getMerges() {
+        return merges;
+    }
+
+
+    /**
+     * Print the snapshot to standard out
+     */
+    public void print() {
+        String out;
+        out = String.format("Pool: %d bytes, %d free, largest free %d",
+            capacity, freeBytes, largestFree);
+        System.out.println(out);
+
+        for (int k = 0; k < freeBlocks.length; k++) {
+            if (freeBlocks[k] > 0 || usedBlocks[k] > 0) {
+                out = String.format("%d: %d free, %d used", 1L << k,
+                    freeBlocks[k], usedBlocks[k]);
+                System.out.println(out);
+            }
+        }
+
+        out = String.format("Requested %d of %d allocated bytes",
+            requestedBytes, allocatedBytes);
+        System.out.println(out);
+        out = String.format(
+            "Resizes: %d, shrinks: %d, copied: %d, splits: %d, merges: %d",
+            resizes, shrinks, bytesCopied, splits, merges);
+        System.out.println(out);
+    }
+
+}
@@ -0,0 +1,65 @@
+import student.TestCase;
+
+/**
+ * Test the methods of the PoolStats class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class PoolStatsTest extends TestCase {
+
+    private PoolStats stats;
+
+    /**
+     * Set up the test object
+     */
+    public void setUp() {
+        int[] free = { 0, 0, 0, 0, 0, 1, 1, 0 };
+        int[] used = { 0, 0, 0, 0, 0, 1, 0, 1 };
+        stats = new PoolStats(256, 96, free, used, 120, 160, 64, 1, 0, 0,
+            2, 0);
+    }
+
+
+    /**
+     * Test the fragmentation fractions
+     */
+    public void testFragmentation() {
+        assertEquals(stats.getInternalFragmentation(), 0.25, 0.0001);
+        assertEquals(stats.getExternalFragmentation(), 1.0 / 3, 0.0001);
+
+        // Nothing allocated or nothing free
+        PoolStats empty = new PoolStats(64, 0, new int[7], new int[7], 0, 0,
+            0, 0, 0, 0, 0, 0);
+        assertEquals(empty.getInternalFragmentation(), 0.0, 0.0001);
+        assertEquals(empty.getExternalFragmentation(), 0.0, 0.0001);
+    }
+
+
+    /**
+     * Test block counts past the top order are zero
+     */
+    public void testBlockCounts() {
+        assertEquals(stats.getFreeBlocks(6), 1);
+        assertEquals(stats.getUsedBlocks(7), 1);
+        assertEquals(stats.getFreeBlocks(20), 0);
+        assertEquals(stats.getUsedBlocks(20), 0);
+    }
+
+
+    /**
+     * Test the printed summary
+     */
+    public void testPrint() {
+        systemOut().clearHistory();
+        stats.print();
+        assertFuzzyEquals(systemOut().getHistory(),
+            "Pool: 256 bytes, 96 free, largest free 64\n"
+                + "32: 1 free, 1 used\n" + "64: 1 free, 0 used\n"
+                + "128: 0 free, 1 used\n"
+                + "Requested 120 of 160 allocated bytes\n"
+                + "Resizes: 1, shrinks: 0, copied: 0, splits: 2, merges: 0\n");
+    }
+
+}
@@ -22,6 +22,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * The class containing the main method.
@@ -50,6 +51,10 @@ import java.io.IOException;
 // letter of this restriction.
 
 public class SemManager {
+
+    // Most inserts and updates -presize reads from the command file
+    private static final int PRESIZE_SAMPLE = 4096;
+
     /**
      * @param args
      *            Command line parameters
@@ -64,11 +69,177 @@ public class SemManager {
         int initHashSize = Integer.parseInt(args[1]);
         String commandFileName = args[2];
 
+        // Optional flags after the command file
+        // -offheap keeps the memory pool out of the Java heap
+        // -lazy commits pool pages on first write instead of on growth
+        // -file <name> keeps the database in a file between runs
+        // -slabs packs small records into 4 KB slabs
+        // -compact <micros> compacts the pool for a while after deletes
+        // -alloc tlsf|tree places records with TLSF or a buddy tree
+        // -trace <n> samples one in n buddy allocations and prints them
+        // -grow <factor> grows the buddy pool at least factor times over
+        // -headroom <fraction> keeps that much of the buddy pool free
+        // -presize sizes the buddy pool up front for the most records
+        // live at once among the file's first 4096 inserts and updates
+        // -large <bytes> keeps records that long outside the buddy pool
+        // -unit <n> counts the buddy pool in 2^n byte units, so it can
+        // grow to 2^(30 + n) bytes
+        // A saved file is always a mapped buddy pool, so the pool and
+        // buddy options cannot be used with -file, and the buddy
+        // options need the buddy method
+        boolean offHeap = false;
+        boolean lazy = false;
+        boolean slabs = false;
+        String dbFileName = null;
+        long compactMicros = 0;
+        String allocator = "buddy";
+        int traceEvery = 0;
+        int growFactor = 2;
+        double headroom = 0;
+        boolean presize = false;
+        int largeThreshold = 0;
+        int unit = 0;
+        ArrayList<String> given = new ArrayList<String>();
+        for (int i = 3; i < args.length; i++) {
+            given.add(args[i]);
+            if (args[i].equals("-offheap")) {
+                offHeap = true;
+            }
+            else if (args[i].equals("-lazy")) {
+                lazy = true;
+            }
+            else if (args[i].equals("-slabs")) {
+                slabs = true;
+            }
+            else if (args[i].equals("-file") && i + 1 < args.length) {
+                dbFileName = args[++i];
+            }
+            else if (args[i].equals("-compact") && i + 1 < args.length) {
+                compactMicros = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("-alloc") && i + 1 < args.length) {
+                allocator = args[++i];
+            }
+            else if (args[i].equals("-trace") && i + 1 < args.length) {
+                traceEvery = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-grow") && i + 1 < args.length) {
+                growFactor = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-headroom") && i + 1 < args.length) {
+                headroom = Double.parseDouble(args[++i]);
+            }
+            else if (args[i].equals("-presize")) {
+                presize = true;
+            }
+            else if (args[i].equals("-large") && i + 1 < args.length) {
+                largeThreshold = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-unit") && i + 1 < args.length) {
+                unit = Integer.parseInt(args[++i]);
+            }
+        }
+
+        // Refuse options that would be ignored
+        String[] buddyOnly = { "-slabs", "-trace", "-grow", "-headroom",
+            "-presize", "-large", "-unit" };
+        String[] poolOnly = { "-offheap", "-lazy", "-slabs", "-alloc",
+            "-trace", "-grow", "-headroom", "-presize", "-large", "-unit" };
+        String out = null;
+        if (!allocator.equals("buddy") && !allocator.equals("tlsf")
+            && !allocator.equals("tree")) {
+            out = String.format("Unknown allocator %s", allocator);
+        }
+        else if (dbFileName != null) {
+            for (String option : poolOnly) {
+                if (out == null && given.contains(option)) {
+                    out = String.format("Option %s cannot be used with -file",
+                        option);
+                }
+            }
+        }
+        else if (!allocator.equals("buddy")) {
+            for (String option : buddyOnly) {
+                if (out == null && given.contains(option)) {
+                    out = String.format("Option %s cannot be used with "
+                        + "-alloc %s", option, allocator);
+                }
+            }
+        }
+        if (out == null && slabs && unit != 0) {
+            out = "Option -slabs cannot be used with -unit";
+        }
+        if (out != null) {
+            System.out.println(out);
+            return;
+        }
+
         File cmdFile = new File(commandFileName);
 
-        SeminarDB database = new SeminarDB(initMemSize, initHashSize);
+        SeminarDB database;
+        MemoryManager traced = null;
+        MemoryManager presized = null;
+        if (dbFileName != null) {
+            // A saved database is reopened with the buddy method
+            database = SeminarDB.open(new File(dbFileName), initMemSize,
+                initHashSize);
+        }
+        else {
+            MemoryPool pool;
+            if (lazy) {
+                pool = new LazyPool(initMemSize, offHeap);
+            }
+            else {
+                pool = new BufferPool(initMemSize, offHeap);
+            }
+            Allocator memory;
+            if (allocator.equals("tlsf")) {
+                memory = new TlsfAllocator(pool);
+            }
+            else if (allocator.equals("tree")) {
+                memory = new TreeBuddyAllocator(pool);
+            }
+            else {
+                MemoryManager manager;
+                try {
+                    manager = new MemoryManager(pool, unit);
+                }
+                catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+                manager.setGrowthPolicy(new GrowthPolicy(growFactor,
+                    headroom));
+                if (largeThreshold > 0) {
+                    manager.enableLargeObjects(largeThreshold, offHeap);
+                }
+                if (presize) {
+                    presized = manager;
+                }
+                if (traceEvery > 0) {
+                    manager.enableTracing(4096, traceEvery);
+                    traced = manager;
+                }
+                memory = manager;
+            }
+            database = new SeminarDB(memory, initHashSize);
+        }
+        if (slabs) {
+            database.enableSlabs(12);
+        }
+        // Presize last, once the large store and slabs take their share
+        if (presized != null) {
+            presized.presize(CommandProcessor.sampleSizes(cmdFile,
+                PRESIZE_SAMPLE));
+        }
+        database.setCompactBudget(compactMicros * 1000);
         CommandProcessor cmdProc = new CommandProcessor(database);
 
         cmdProc.readCmdFile(cmdFile);
+        database.close();
+
+        if (traced != null) {
+            traced.getTracer().print();
+        }
     }
 }
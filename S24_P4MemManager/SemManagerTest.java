@@ -1,6 +1,9 @@
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import student.TestCase;
 
@@ -137,4 +140,422 @@ public class SemManagerTest extends TestCase {
         assertFuzzyEquals(referenceOutput, output);
     }
 
+
+    /**
+     * Test the P4 sample files with an off heap memory pool
+     * 
+     * @throws IOException
+     */
+    public void testP4SampleOffHeap() throws IOException {
+        String[] args = new String[4];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = "P4Sample_input.txt";
+        args[3] = "-offheap";
+
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+        String referenceOutput = readFile("P4Sample_output.txt");
+
+        assertFuzzyEquals(referenceOutput, output);
+    }
+
+
+    /**
+     * Test the P4 sample files with a lazily committed pool
+     * 
+     * @throws IOException
+     */
+    public void testP4SampleLazy() throws IOException {
+        String[] args = new String[5];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = "P4Sample_input.txt";
+        args[3] = "-lazy";
+        args[4] = "-offheap";
+
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+        String referenceOutput = readFile("P4Sample_output.txt");
+
+        assertFuzzyEquals(referenceOutput, output);
+    }
+
+
+    /**
+     * Test sampling the allocations of the P4 sample
+     * 
+     * @throws IOException
+     */
+    public void testTrace() throws IOException {
+        String[] args = new String[5];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = "P4Sample_input.txt";
+        args[3] = "-trace";
+        args[4] = "1";
+
+        systemOut().clearHistory();
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+
+        // Four inserts and one delete reach the free block list
+        assertTrue(output.contains("Allocation trace: 5 of 5 samples"));
+        assertTrue(output.contains("256: 4 "));
+    }
+
+
+    /**
+     * Test sizing the pool from the command file before loading it
+     * 
+     * @throws IOException
+     */
+    public void testPresize() throws IOException {
+        String[] args = new String[4];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = "P4Sample_input.txt";
+        args[3] = "-presize";
+
+        systemOut().clearHistory();
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+
+        // Four live records of 256 byte blocks, the duplicate ID is
+        // not inserted, expanded once before any
+        assertTrue(output.startsWith("Memory pool expanded to 1024 bytes\n"
+            + "Successfully inserted record with ID 1"));
+        assertEquals(output.indexOf("Memory pool expanded"), output
+            .lastIndexOf("Memory pool expanded"));
+    }
+
+
+    /**
+     * Test records kept outside the pool by the large object path
+     * 
+     * @throws IOException
+     */
+    public void testLarge() throws IOException {
+        String[] args = new String[5];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = "P4Sample_input.txt";
+        args[3] = "-large";
+        args[4] = "100";
+
+        systemOut().clearHistory();
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+
+        // Every sample record is large, so the pool never grows
+        assertFalse(output.contains("Memory pool expanded"));
+        assertTrue(output.contains("Successfully inserted record with ID 1"));
+        assertTrue(output.contains("Freeblock List:\n512: 0"));
+    }
+
+
+    /**
+     * Test presizing leaves out records for the large store
+     * 
+     * @throws IOException
+     */
+    public void testPresizeLarge() throws IOException {
+        String[] args = { "64", "4", "P4Sample_input.txt", "-presize",
+            "-large", "100" };
+
+        systemOut().clearHistory();
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+
+        // Every sample record is large, so presizing grows nothing
+        assertFalse(output.contains("Memory pool expanded"));
+        assertTrue(output.contains("Freeblock List:\n64: 0"));
+    }
+
+
+    /**
+     * Test a database saved in a file is reopened by a second run
+     * 
+     * @throws IOException
+     */
+    public void testReopenFromFile() throws IOException {
+        File dbFile = File.createTempFile("semdb", ".bin");
+        File cmdFile = File.createTempFile("semcmd", ".txt");
+        dbFile.delete();
+
+        String[] args = new String[5];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = "P4Sample_input.txt";
+        args[3] = "-file";
+        args[4] = dbFile.getPath();
+        SemManager.main(args);
+
+        // Second run only searches
+        Files.write(cmdFile.toPath(), "search 3\nsearch 2\nsearch 10\n"
+            .getBytes());
+        args[2] = cmdFile.getPath();
+
+        systemOut().clearHistory();
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+
+        assertTrue(output.contains("Found record with ID 3:"));
+        assertTrue(output.contains(
+            "Search FAILED -- There is no record with ID 2"));
+        assertTrue(output.contains("Found record with ID 10:"));
+        assertTrue(output.contains(
+            "Title: Overview of HPC and CSE Research at VT"));
+
+        dbFile.delete();
+        cmdFile.delete();
+    }
+
+
+    /**
+     * Test compacting after deletes moves records to the front
+     * 
+     * @throws IOException
+     */
+    public void testCompactAfterDelete() throws IOException {
+        File cmdFile = File.createTempFile("semcmd", ".txt");
+
+        // The sample's inserts, then free the two lowest records
+        List<String> lines = Files.readAllLines(new File(
+            "P4Sample_input.txt").toPath());
+        lines = new ArrayList<String>(lines.subList(0, 37));
+        lines.add("delete 1");
+        lines.add("delete 2");
+        lines.add("print blocks");
+        Files.write(cmdFile.toPath(), lines);
+
+        String[] args = new String[5];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = cmdFile.getPath();
+        args[3] = "-compact";
+        args[4] = "1000000";
+
+        systemOut().clearHistory();
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+
+        assertTrue(output.contains(
+            "Record with ID 2 successfully deleted from the database"));
+        assertTrue(output.contains("Freeblock List:\n512: 512"));
+
+        cmdFile.delete();
+    }
+
+
+    /**
+     * Test updating records in place
+     * 
+     * @throws IOException
+     */
+    public void testUpdate() throws IOException {
+        File cmdFile = File.createTempFile("semcmd", ".txt");
+
+        // The sample's inserts, then rewrite one record
+        List<String> lines = Files.readAllLines(new File(
+            "P4Sample_input.txt").toPath());
+        lines = new ArrayList<String>(lines.subList(0, 37));
+        lines.add("update 1");
+        lines.add("Overview of HCI Research at VT");
+        lines.add("0610051600 90 10 10 45");
+        lines.add("HCI VT");
+        lines.add("Now a shorter description");
+        lines.add("update 7");
+        lines.add("Missing");
+        lines.add("0610051600 90 10 10 45");
+        lines.add("HCI");
+        lines.add("Not there");
+        lines.add("search 1");
+        lines.add("print blocks");
+        Files.write(cmdFile.toPath(), lines);
+
+        String[] args = new String[3];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = cmdFile.getPath();
+
+        systemOut().clearHistory();
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+
+        assertTrue(output.contains("Successfully updated record with ID 1"));
+        assertTrue(output.contains(
+            "Update FAILED -- There is no record with ID 7"));
+        assertTrue(output.contains("Description: Now a shorter description"));
+        assertTrue(output.contains("Keywords: HCI, VT"));
+
+        // Record 1 shrank in place and gave back the upper half
+        assertTrue(output.contains("Freeblock List:\n128: 128"));
+
+        cmdFile.delete();
+    }
+
+
+    /**
+     * Test clearing the database and loading it again
+     * 
+     * @throws IOException
+     */
+    public void testClear() throws IOException {
+        File cmdFile = File.createTempFile("semcmd", ".txt");
+
+        // The sample's inserts twice with a clear between
+        List<String> lines = Files.readAllLines(new File(
+            "P4Sample_input.txt").toPath());
+        List<String> inserts = lines.subList(0, 37);
+        lines = new ArrayList<String>(inserts);
+        lines.add("clear");
+        lines.add("print hashtable");
+        lines.add("print blocks");
+        lines.addAll(inserts);
+        Files.write(cmdFile.toPath(), lines);
+
+        String[] args = new String[3];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = cmdFile.getPath();
+
+        systemOut().clearHistory();
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+
+        assertTrue(output.contains("All records deleted from the database\n"
+            + "Hashtable:\ntotal records: 0\nFreeblock List:\n1024: 0"));
+
+        // The second load fits without expanding again
+        String reload = output.substring(output.indexOf("Freeblock List:"));
+        assertFalse(reload.contains("expanded"));
+        assertTrue(reload.contains("Successfully inserted record with ID 10"));
+
+        cmdFile.delete();
+    }
+
+
+    /**
+     * Test the P4 sample with the TLSF allocator
+     * 
+     * @throws IOException
+     */
+    public void testP4SampleTlsf() throws IOException {
+        String[] args = new String[5];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = "P4Sample_input.txt";
+        args[3] = "-alloc";
+        args[4] = "tlsf";
+
+        systemOut().clearHistory();
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+
+        assertTrue(output.contains("Memory pool expanded to 1024 bytes"));
+        assertTrue(output.contains("Found record with ID 3:"));
+        assertTrue(output.contains(
+            "Search FAILED -- There is no record with ID 2"));
+
+        // Records take 8 byte steps, not powers of two
+        assertTrue(output.contains("Freeblock List:\n256: 184\n"
+            + "208: 816\n"));
+    }
+
+
+    /**
+     * Test the P4 sample files with the buddy tree
+     * 
+     * @throws IOException
+     */
+    public void testP4SampleTree() throws IOException {
+        String[] args = new String[5];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = "P4Sample_input.txt";
+        args[3] = "-alloc";
+        args[4] = "tree";
+
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+        String referenceOutput = readFile("P4Sample_output.txt");
+
+        assertFuzzyEquals(referenceOutput, output);
+    }
+
+
+    /**
+     * Test the P4 sample files with the pool counted in 16 byte units
+     * 
+     * @throws IOException
+     */
+    public void testP4SampleUnit() throws IOException {
+        String[] args = new String[5];
+        args[0] = "512";
+        args[1] = "4";
+        args[2] = "P4Sample_input.txt";
+        args[3] = "-unit";
+        args[4] = "4";
+
+        SemManager.main(args);
+        String output = systemOut().getHistory();
+        String referenceOutput = readFile("P4Sample_output.txt");
+
+        assertFuzzyEquals(referenceOutput, output);
+    }
+
+
+    /**
+     * Test options that would be ignored are refused
+     * 
+     * @throws IOException
+     */
+    public void testUnsupportedOptions() throws IOException {
+        String[][] runs = { { "-alloc", "tlsf", "-slabs" }, { "-alloc",
+            "tree", "-grow", "4" }, { "-file", "x.bin", "-offheap" }, {
+                "-file", "x.bin", "-trace", "8" }, { "-alloc", "fast" }, {
+                    "-slabs", "-unit", "2" }, { "-file", "x.bin",
+                        "-slabs" } };
+        String[] expected = { "Option -slabs cannot be used with -alloc tlsf",
+            "Option -grow cannot be used with -alloc tree",
+            "Option -offheap cannot be used with -file",
+            "Option -trace cannot be used with -file",
+            "Unknown allocator fast",
+            "Option -slabs cannot be used with -unit",
+            "Option -slabs cannot be used with -file" };
+
+        for (int i = 0; i < runs.length; i++) {
+            String[] args = new String[3 + runs[i].length];
+            args[0] = "512";
+            args[1] = "4";
+            args[2] = "P4Sample_input.txt";
+            System.arraycopy(runs[i], 0, args, 3, runs[i].length);
+
+            systemOut().clearHistory();
+            SemManager.main(args);
+            assertEquals(systemOut().getHistory(), expected[i] + "\n");
+        }
+        assertFalse(new File("x.bin").exists());
+    }
+
+
+    /**
+     * Test a pool that does not fit the unit is refused
+     * 
+     * @throws IOException
+     */
+    public void testBadUnit() throws IOException {
+        String[][] runs = { { "8", "4", "P4Sample_input.txt", "-unit",
+            "4" }, { "48", "4", "P4Sample_input.txt", "-unit", "4" } };
+        String[] expected = { "Memory pool needs a smaller unit",
+            "Memory pool must be a power of two units" };
+
+        for (int i = 0; i < runs.length; i++) {
+            systemOut().clearHistory();
+            SemManager.main(runs[i]);
+            assertEquals(systemOut().getHistory(), expected[i] + "\n");
+        }
+    }
+
 }
@@ -76,6 +76,16 @@ public class Seminar implements Serializable {
     // ----------------------------------------------------------
 
 
+    /**
+     * Return the seminar ID
+     *
+     * @return the ID
+     */
+    public int getID() {
+        return id;
+    }
+
+
     /**
      * Return a Seminar object made by deserializing a byte array
      *
@@ -87,8 +97,22 @@ public class Seminar implements Serializable {
      */
 
     public static Seminar deserialize(byte[] inputbytes) throws Exception {
-        ByteArrayInputStream bis = new ByteArrayInputStream(inputbytes);
-        try (ObjectInputStream inputStream = new ObjectInputStream(bis)) {
+        return deserialize(new ByteArrayInputStream(inputbytes));
+    }
+
+
+    /**
+     * Return a Seminar object made by deserializing a stream
+     *
+     * @param input
+     *            A stream holding a serialized Seminar object
+     * @return the deserialized Seminar
+     * @throws Exception
+     *             from byte stream
+     */
+
+    public static Seminar deserialize(InputStream input) throws Exception {
+        try (ObjectInputStream inputStream = new ObjectInputStream(input)) {
             int id = inputStream.readInt();
             String title = inputStream.readUTF();
             String date = inputStream.readUTF();
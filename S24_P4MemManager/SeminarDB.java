@@ -1,4 +1,8 @@
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Handle the Seminar database. This class processes commands by manipulating
@@ -11,8 +15,47 @@ public class SeminarDB {
     // The hash table storing key (ID), value (Handle) pairs
     private HashTable table;
 
-    // The memory manager using a free block list
-    private MemoryManager memory;
+    // The allocator holding the records
+    private Allocator memory;
+
+    // The file backed pool, null if the database is not saved
+    private MappedPool mapped;
+
+    // Records freed since the last checkpoint
+    // The saved index may still name them, so their blocks are kept
+    // until the next checkpoint replaces it
+    private ArrayList<Handle> pinned = new ArrayList<Handle>();
+
+    // Record bytes pinned since the last checkpoint
+    private long pinnedBytes;
+
+    // A checkpoint runs once pinned records hold 1/PINNED_SHARE of
+    // the pool, so a long session does not keep growing the file
+    private static final int PINNED_SHARE = 4;
+
+    // Next table index compaction looks at
+    private int compactCursor;
+
+    // True if the current compaction pass moved a record
+    private boolean compactMoved;
+
+    // Time for the compaction step after each delete, 0 for none
+    private long compactBudget;
+
+    // Searches share the read lock, changes take the write lock
+    // Fair, so changes waiting on a compaction step go before its swap
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(
+        true);
+
+    // The background compactor, null when not running
+    private Thread compactor;
+
+    // False asks the background compactor to stop
+    private volatile boolean compacting;
+
+    // Number of clears, changed under the write lock
+    // A compaction step's copy is gone if a clear ran since it was made
+    private long clears;
 
     /**
      * Create a new SeminarDB object.
@@ -24,9 +67,170 @@ public class SeminarDB {
      * @throws IOException
      */
     public SeminarDB(int initMemSize, int initHashSize) throws IOException {
+        this(new MemoryManager(initMemSize), initHashSize);
+    }
+
+
+    /**
+     * Create a new SeminarDB object using the given allocator.
+     *
+     * @param memory
+     *            The allocator holding the records
+     * @param initHashSize
+     *            Initial size for hash tables
+     */
+    public SeminarDB(Allocator memory, int initHashSize) {
         // Init both table and memory
-        table = new HashTable(initHashSize);
-        memory = new MemoryManager(initMemSize);
+        this.table = new HashTable(initHashSize);
+        this.memory = memory;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Open a SeminarDB saved in a file, or create a new one.
+     * Records are kept in a pool mapped onto the file. If the file
+     * already holds a database, the hash table and free block list
+     * are rebuilt from its saved index.
+     *
+     * The file holds the database as of the last checkpoint, even
+     * after a crash. Until then, blocks of deleted, updated and moved
+     * records are not used again and records are never rewritten in
+     * place.
+     *
+     * @param file
+     *            The file holding the database
+     * @param initMemSize
+     *            Initial size for a new memory pool
+     * @param initHashSize
+     *            Initial size for hash tables
+     * @return the opened database
+     * @throws IOException
+     */
+    public static SeminarDB open(File file, int initMemSize, int initHashSize)
+        throws IOException {
+        MappedPool pool = new MappedPool(file, initMemSize);
+
+        SeminarDB database = new SeminarDB(new MemoryManager(pool),
+            initHashSize);
+        database.mapped = pool;
+
+        if (pool.isReopened()) {
+            database.load(initHashSize);
+        }
+        return database;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Rebuild the hash table and free block list from the saved index
+     *
+     * @param initHashSize
+     *            Initial size for hash tables
+     * @throws IOException
+     *             if the index names a block twice or past the pool
+     */
+    private void load(int initHashSize) throws IOException {
+        byte[] bytes = mapped.loadIndex();
+        if (bytes == null) {
+            // Never saved
+            return;
+        }
+
+        // Index record holds a count then (ID, address, length) triples
+        // Addresses are longs so pools past 2 GB are saved whole
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        int count = in.getInt();
+
+        // Size the table up front so loading does not resize it
+        int hashSize = initHashSize;
+        while (count > hashSize / 2) {
+            hashSize *= 2;
+        }
+        table = new HashTable(hashSize);
+
+        for (int i = 0; i < count; i++) {
+            int sID = in.getInt();
+            Handle handle = new Handle(in.getLong(), in.getInt());
+
+            if (!memory.reserve(handle)) {
+                throw new IOException(String.format(
+                    "Saved index is corrupt at record with ID %d", sID));
+            }
+            table.insert(sID, handle);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Save the index of all records into the file.
+     * Blocks freed since the last checkpoint are given back once the
+     * new index is saved. Does nothing if the database is not saved
+     * in a file.
+     *
+     * @throws IOException
+     */
+    public void checkpoint() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (mapped == null) {
+                return;
+            }
+
+            // Build the index record
+            ByteBuffer out = ByteBuffer.allocate(4 + 16 * table.getSize());
+            out.putInt(table.getSize());
+
+            for (int i = 0; i < table.getCapacity(); i++) {
+                HashEntry entry = table.getEntry(i);
+
+                if (entry.getState() == HashEntryState.FULL) {
+                    Handle handle = entry.getValue();
+                    if (handle.isLarge()) {
+                        // Kept outside the pool, so not in the file
+                        throw new IOException(String.format(
+                            "Record with ID %d cannot be saved in a file",
+                            entry.getKey()));
+                    }
+                    out.putInt(entry.getKey());
+                    out.putLong(handle.getAddress());
+                    out.putInt(handle.getLength());
+                }
+            }
+
+            // The old index is good until the new one is saved
+            mapped.saveIndex(out.array());
+
+            for (Handle handle : pinned) {
+                memory.remove(handle);
+            }
+            pinned.clear();
+            pinnedBytes = 0;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Save the database and close its file.
+     * Does nothing if the database is not saved in a file.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        stopCompactor();
+        if (mapped == null) {
+            return;
+        }
+
+        checkpoint();
+        mapped.close();
+        mapped = null;
     }
 
 
@@ -65,36 +269,149 @@ public class SeminarDB {
         String[] skeywords,
         String sdesc)
         throws Exception {
-        String out;
+        // Construct seminar object using params
+        insert(new Seminar(sID, stitle, sdate, slength, (short)sx, (short)sy,
+            scost, skeywords, sdesc));
+    }
 
-        // If ID already exists, FAIL
-        if (table.contains(sID)) {
-            // FAIL
-            out = String.format(
-                "Insert FAILED - There is already a record with ID %d", sID);
+
+    // ----------------------------------------------------------
+    /**
+     * Insert a seminar read from the command file
+     * 
+     * @param sem
+     *            The seminar to insert
+     * @throws Exception
+     */
+    public void insert(Seminar sem) throws Exception {
+        lock.writeLock().lock();
+        try {
+            String out;
+            int sID = sem.getID();
+
+            // If ID already exists, FAIL
+            if (table.contains(sID)) {
+                // FAIL
+                out = String.format(
+                    "Insert FAILED - There is already a record with ID %d",
+                    sID);
+                System.out.println(out);
+                return;
+            }
+
+            // Serialize to byte array
+            byte[] serial = sem.serialize();
+
+            // Insert into memory manager -> Handle
+            int size = serial.length;
+            Handle handle = memory.insert(serial, size);
+
+            // Insert into hash table -> key = ID, value = Handle
+            table.insert(sID, handle);
+
+            // SUCCESS
+            out = String.format("Successfully inserted record with ID %d", sID);
             System.out.println(out);
-            return;
+            System.out.println(sem.toString());
+            out = String.format("Size: %d", size);
+            System.out.println(out);
+        }
+        finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        // Construct seminar object using params
-        // Serialize to byte array
-        Seminar sem = new Seminar(sID, stitle, sdate, slength, (short)sx,
-            (short)sy, scost, skeywords, sdesc);
-        byte[] serial = sem.serialize();
 
-        // Insert into memory manager -> Handle
-        int size = serial.length;
-        Handle handle = memory.insert(serial, size);
+    // ----------------------------------------------------------
+    /**
+     * Process update command, replacing the record with the given ID.
+     * The record is rewritten in place whenever its block allows.
+     * 
+     * @param sID
+     *            ID value
+     * @param stitle
+     *            title
+     * @param sdate
+     *            date
+     * @param slength
+     *            length
+     * @param sx
+     *            x
+     * @param sy
+     *            y
+     * @param scost
+     *            cost
+     * @param skeywords
+     *            keywords
+     * @param sdesc
+     *            description
+     * @throws Exception
+     */
+    public void update(
+        int sID,
+        String stitle,
+        String sdate,
+        int slength,
+        int sx,
+        int sy,
+        int scost,
+        String[] skeywords,
+        String sdesc)
+        throws Exception {
+        update(new Seminar(sID, stitle, sdate, slength, (short)sx, (short)sy,
+            scost, skeywords, sdesc));
+    }
 
-        // Insert into hash table -> key = ID, value = Handle
-        table.insert(sID, handle);
 
-        // SUCCESS
-        out = String.format("Successfully inserted record with ID %d", sID);
-        System.out.println(out);
-        System.out.println(sem.toString());
-        out = String.format("Size: %d", size);
-        System.out.println(out);
+    // ----------------------------------------------------------
+    /**
+     * Replace the record with the seminar's ID
+     * 
+     * @param sem
+     *            The new seminar
+     * @throws Exception
+     */
+    public void update(Seminar sem) throws Exception {
+        lock.writeLock().lock();
+        try {
+            String out;
+            int sID = sem.getID();
+
+            // If ID does not exist, FAIL
+            if (!table.contains(sID)) {
+                // FAIL
+                out = String.format(
+                    "Update FAILED -- There is no record with ID %d", sID);
+                System.out.println(out);
+                return;
+            }
+
+            byte[] serial = sem.serialize();
+
+            // Rewrite the record, the handle changes only if it moved
+            // A saved record is kept as it is until the next checkpoint
+            int size = serial.length;
+            Handle handle;
+            if (mapped != null) {
+                handle = memory.insert(serial, size);
+                release(table.get(sID));
+            }
+            else {
+                handle = memory.realloc(table.get(sID), serial, size);
+            }
+            table.update(sID, handle);
+            checkpointIfPinned();
+
+            // SUCCESS
+            out = String.format("Successfully updated record with ID %d", sID);
+            System.out.println(out);
+            System.out.println(sem.toString());
+            out = String.format("Size: %d", size);
+            System.out.println(out);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
     }
 
 
@@ -107,30 +424,323 @@ public class SeminarDB {
      * @throws IOException
      */
     public void delete(int sID) throws IOException {
-        String out;
+        lock.writeLock().lock();
+        try {
+            String out;
 
-        // If ID does not exist, FAIL
-        if (!table.contains(sID)) {
-            // FAIL
+            // If ID does not exist, FAIL
+            if (!table.contains(sID)) {
+                // FAIL
+                out = String.format(
+                    "Delete FAILED -- There is no record with ID %d", sID);
+                System.out.println(out);
+                return;
+            }
+
+            // Get handle from table
+            Handle handle = table.get(sID);
+
+            // Remove from memory
+            release(handle);
+
+            // Remove from table
+            table.remove(sID);
+            checkpointIfPinned();
+
+            // SUCCESS
             out = String.format(
-                "Delete FAILED -- There is no record with ID %d", sID);
+                "Record with ID %d successfully deleted from the database",
+                sID);
             System.out.println(out);
+
+            if (compactBudget > 0) {
+                compactStep(compactBudget);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Delete every record at once.
+     * The pool and hash table keep their capacities, so a reload
+     * does not resize them again.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            // A saved index would point at freed space
+            if (mapped != null) {
+                mapped.clearIndex();
+            }
+            pinned.clear();
+            pinnedBytes = 0;
+
+            table.clear();
+            memory.clear();
+
+            compactCursor = 0;
+            compactMoved = false;
+            clears++;
+
+            System.out.println("All records deleted from the database");
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Free a record's block, or keep it until the next checkpoint if
+     * the saved index may name it
+     *
+     * @param handle
+     *            The handle of the record
+     */
+    private void release(Handle handle) {
+        if (mapped != null) {
+            pinned.add(handle);
+            pinnedBytes += handle.getLength();
+        }
+        else {
+            memory.remove(handle);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Checkpoint if the records pinned since the last one hold enough
+     * of the pool. Call only once the hash table no longer names them.
+     *
+     * @throws IOException
+     */
+    private void checkpointIfPinned() throws IOException {
+        if (pinnedBytes * PINNED_SHARE >= memory.getCapacity()) {
+            checkpoint();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Move records toward the start of the pool for a while.
+     * Each record goes to the lowest free block that holds it and
+     * its handle is replaced in the hash table, so free space gathers
+     * into large blocks at the end. Work resumes where the last step
+     * stopped. At least one table slot is looked at per step.
+     *
+     * @param budgetNanos
+     *            How long the step may run
+     * @return true if a whole pass over the table moved nothing
+     */
+    public boolean compactStep(long budgetNanos) {
+        lock.writeLock().lock();
+        try {
+            long deadline = System.nanoTime() + budgetNanos;
+
+            do {
+                if (compactCursor >= table.getCapacity()) {
+                    // Finished a pass
+                    boolean done = !compactMoved;
+                    compactCursor = 0;
+                    compactMoved = false;
+                    return done;
+                }
+
+                HashEntry entry = table.getEntry(compactCursor);
+                compactCursor++;
+
+                if (entry.getState() == HashEntryState.FULL) {
+                    Handle handle = entry.getValue();
+                    Handle moved;
+                    if (mapped != null) {
+                        // Keep the saved copy until the next checkpoint
+                        moved = memory.copyLower(handle);
+                    }
+                    else {
+                        moved = memory.relocate(handle);
+                    }
+
+                    if (moved != handle) {
+                        table.update(entry.getKey(), moved);
+                        if (mapped != null) {
+                            release(handle);
+                        }
+                        compactMoved = true;
+                    }
+                }
+            }
+            while (System.nanoTime() - deadline < 0);
+
+            return false;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Compact until no record can move lower
+     */
+    public void compact() {
+        while (!compactStep(Long.MAX_VALUE / 2)) {
+            // Keep going
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Move one record toward the start of the pool without stopping
+     * searches.
+     * The record is copied under the read lock, so searches go on
+     * reading its old block. The table then points at the copy and
+     * the old block is freed under the write lock, once no search
+     * can still hold the old handle. A record changed meanwhile
+     * keeps its new bytes and the copy is freed instead, unless the
+     * database was cleared meanwhile, which freed the copy already.
+     * Only one thread may run compaction steps at a time.
+     *
+     * @return true if a whole pass over the table moved nothing
+     */
+    public boolean compactConcurrentStep() {
+        int key;
+        Handle handle;
+        Handle moved;
+        long cleared;
+
+        lock.readLock().lock();
+        try {
+            cleared = clears;
+            if (compactCursor >= table.getCapacity()) {
+                // Finished a pass
+                boolean done = !compactMoved;
+                compactCursor = 0;
+                compactMoved = false;
+                return done;
+            }
+
+            HashEntry entry = table.getEntry(compactCursor);
+            compactCursor++;
+            if (entry.getState() != HashEntryState.FULL) {
+                return false;
+            }
+
+            key = entry.getKey();
+            handle = entry.getValue();
+            moved = memory.copyLower(handle);
+            if (moved == handle) {
+                return false;
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (clears != cleared) {
+                // The clear freed the copy with everything else
+                return false;
+            }
+            if (table.contains(key) && table.get(key) == handle) {
+                table.update(key, moved);
+                release(handle);
+                compactMoved = true;
+            }
+            else {
+                memory.remove(moved);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        return false;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Start compacting in a background thread.
+     * The thread moves one record at a time, lets waiting inserts,
+     * deletes and searches go first, and sleeps once a whole pass
+     * moves nothing.
+     *
+     * @param idleMillis
+     *            How long to sleep after a pass that moved nothing
+     */
+    public synchronized void startCompactor(long idleMillis) {
+        if (compactor != null) {
             return;
         }
 
-        // Get handle from table
-        Handle handle = table.get(sID);
+        compacting = true;
+        compactor = new Thread(() -> {
+            try {
+                while (compacting) {
+                    if (compactConcurrentStep()) {
+                        Thread.sleep(idleMillis);
+                    }
+                    else if (lock.hasQueuedThreads()) {
+                        Thread.yield();
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                // Asked to stop
+            }
+        }, "compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
 
-        // Remove from memory
-        memory.remove(handle);
 
-        // Remove from table
-        table.remove(sID);
+    // ----------------------------------------------------------
+    /**
+     * Stop the background compactor and wait for it to finish.
+     * Does nothing if it is not running.
+     */
+    public synchronized void stopCompactor() {
+        if (compactor == null) {
+            return;
+        }
 
-        // SUCCESS
-        out = String.format(
-            "Record with ID %d successfully deleted from the database", sID);
-        System.out.println(out);
+        compacting = false;
+        compactor.interrupt();
+        boolean interrupted = false;
+        while (compactor.isAlive()) {
+            try {
+                compactor.join();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        compactor = null;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Run a compaction step after every delete
+     *
+     * @param budgetNanos
+     *            How long each step may run, 0 turns it off
+     */
+    public void setCompactBudget(long budgetNanos) {
+        compactBudget = budgetNanos;
     }
 
 
@@ -145,9 +755,10 @@ public class SeminarDB {
      */
     public void search(int sID) throws IOException, Exception {
         String out;
+        Seminar sem = find(sID);
 
         // If ID does not exist -> FAIL
-        if (!table.contains(sID)) {
+        if (sem == null) {
             // FAIL
             out = String.format(
                 "Search FAILED -- There is no record with ID %d", sID);
@@ -155,18 +766,6 @@ public class SeminarDB {
             return;
         }
 
-        // Get from table -> Handle
-        Handle handle = table.get(sID);
-        int size = handle.getLength();
-
-        // Get from memory manager -> byte array
-        byte[] record = new byte[size];
-        memory.get(record, handle, size);
-
-        // Record now contains byte array
-        // De-serialize to seminar object
-        Seminar sem = Seminar.deserialize(record);
-
         // SUCCESS
         // Print all the stuff
         out = String.format("Found record with ID %d:", sID);
@@ -175,6 +774,36 @@ public class SeminarDB {
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Return the seminar with the given key.
+     * Runs alongside other searches and the background compactor.
+     * 
+     * @param sID
+     *            The key to search for
+     * @return the seminar, or null if there is none
+     * @throws Exception
+     */
+    public Seminar find(int sID) throws Exception {
+        lock.readLock().lock();
+        try {
+            if (!table.contains(sID)) {
+                return null;
+            }
+
+            // Get from table -> Handle
+            Handle handle = table.get(sID);
+
+            // De-serialize to seminar object straight from the pool
+            return Seminar.deserialize(new ByteBufferInputStream(memory
+                .view(handle)));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Print the hash table
@@ -183,11 +812,35 @@ public class SeminarDB {
      * @throws IOException
      */
     public int hashprint() throws IOException {
-        // Print all the stuff in the hash table
-        table.print();
+        lock.readLock().lock();
+        try {
+            // Print all the stuff in the hash table
+            table.print();
 
-        // Return number of records in the table
-        return table.getSize();
+            // Return number of records in the table
+            return table.getSize();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Pack small records into slabs from now on
+     *
+     * @param slabOrder
+     *            2^slabOrder is the size of each slab
+     */
+    public void enableSlabs(int slabOrder) {
+        lock.writeLock().lock();
+        try {
+            memory.enableSlabs(slabOrder);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
     }
 
 
@@ -196,7 +849,13 @@ public class SeminarDB {
      * Print the memory manager freeblock list
      */
     public void memmanprint() {
-        // Print the freelist
-        memory.print();
+        lock.readLock().lock();
+        try {
+            // Print the freelist
+            memory.print();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 }
@@ -0,0 +1,516 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import student.TestCase;
+
+/**
+ * Test the methods of the SeminarDB class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class SeminarDBTest extends TestCase {
+
+    private MemoryManager memory;
+
+    private SeminarDB database;
+
+    /**
+     * Set up the test objects
+     */
+    public void setUp() {
+        memory = new MemoryManager(1024);
+        database = new SeminarDB(memory, 16);
+    }
+
+
+    /**
+     * Return a seminar for an ID
+     *
+     * @param id
+     *            The ID
+     * @return the seminar
+     */
+    private Seminar seminar(int id) {
+        return seminar(id, "Description of " + id);
+    }
+
+
+    /**
+     * Return a seminar for an ID with a given description
+     *
+     * @param id
+     *            The ID
+     * @param desc
+     *            The description
+     * @return the seminar
+     */
+    private Seminar seminar(int id, String desc) {
+        String[] keywords = { "HCI", "VT" };
+        return new Seminar(id, "Seminar " + id, "0610051600", 90,
+            (short)10, (short)10, 45, keywords, desc);
+    }
+
+
+    /**
+     * Return a seminar for an ID whose record takes a 256 byte block
+     *
+     * @param id
+     *            The ID
+     * @return the seminar
+     */
+    private Seminar longSeminar(int id) {
+        return seminar(id, "A much longer description of seminar " + id
+            + " that no longer fits in a block of 128 bytes");
+    }
+
+
+    /**
+     * Test finding records
+     *
+     * @throws Exception
+     */
+    public void testFind() throws Exception {
+        database.insert(seminar(3));
+        assertEquals(database.find(3).toString(), seminar(3).toString());
+        assertNull(database.find(4));
+
+        database.delete(3);
+        assertNull(database.find(3));
+    }
+
+
+    /**
+     * Test compaction steps that let searches run move records down
+     *
+     * @throws Exception
+     */
+    public void testConcurrentStep() throws Exception {
+        for (int id = 0; id < 8; id++) {
+            database.insert(seminar(id));
+        }
+        for (int id = 0; id < 8; id += 2) {
+            database.delete(id);
+        }
+
+        while (!database.compactConcurrentStep()) {
+            // Keep going
+        }
+
+        // Four records of 128 bytes pack into the first 512
+        systemOut().clearHistory();
+        database.memmanprint();
+        String output = systemOut().getHistory();
+        assertTrue(output.contains("Freeblock List:\n512: 512"));
+
+        for (int id = 1; id < 8; id += 2) {
+            assertEquals(database.find(id).toString(), seminar(id)
+                .toString());
+        }
+        assertEquals(memory.stats().getRequestedBytes(), 4L * seminar(1)
+            .serialize().length);
+    }
+
+
+    /**
+     * Test a file reopened without a clean close holds the database as
+     * of the last checkpoint
+     *
+     * @throws Exception
+     */
+    public void testCheckpointConsistency() throws Exception {
+        File file = File.createTempFile("seminardb", ".bin");
+        file.delete();
+
+        SeminarDB saved = SeminarDB.open(file, 1024, 16);
+        saved.insert(seminar(1));
+        saved.insert(seminar(2));
+        saved.checkpoint();
+
+        // Changes after the checkpoint must not touch saved blocks
+        saved.delete(1);
+        saved.insert(seminar(3));
+        saved.update(longSeminar(2));
+        saved.compact();
+
+        // Reopen as if the first run crashed here
+        SeminarDB reopened = SeminarDB.open(file, 1024, 16);
+        assertEquals(reopened.find(1).toString(), seminar(1).toString());
+        assertEquals(reopened.find(2).toString(), seminar(2).toString());
+        assertNull(reopened.find(3));
+        reopened.close();
+
+        saved.close();
+        file.delete();
+    }
+
+
+    /**
+     * Test deleting and inserting for a whole session gives freed
+     * blocks back without waiting for close
+     *
+     * @throws Exception
+     */
+    public void testChurnCheckpoints() throws Exception {
+        File file = File.createTempFile("seminardb", ".bin");
+        file.delete();
+
+        SeminarDB saved = SeminarDB.open(file, 1024, 16);
+        for (int id = 0; id < 4; id++) {
+            saved.insert(seminar(id));
+        }
+        long start = file.length();
+        for (int i = 0; i < 500; i++) {
+            saved.delete(i % 4);
+            saved.insert(seminar(i % 4, "Round " + i));
+            saved.update(seminar(i % 4, "Updated " + i));
+        }
+
+        // Without checkpoints this grows by a block per change
+        assertTrue(file.length() <= start * 2);
+        saved.close();
+
+        saved = SeminarDB.open(file, 1024, 16);
+        assertEquals(saved.find(3).toString(), seminar(3, "Updated 499")
+            .toString());
+        saved.close();
+        file.delete();
+    }
+
+
+    /**
+     * Test a file database refuses slabs and still saves and reopens
+     * records of one size
+     *
+     * @throws Exception
+     */
+    public void testSlabsSaveAndReopen() throws Exception {
+        File file = File.createTempFile("seminardb", ".bin");
+        file.delete();
+
+        SeminarDB saved = SeminarDB.open(file, 512, 16);
+        Exception thrown = null;
+        try {
+            saved.enableSlabs(12);
+        }
+        catch (IllegalStateException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+
+        for (int id = 1; id <= 3; id++) {
+            saved.insert(seminar(id));
+        }
+        saved.close();
+
+        saved = SeminarDB.open(file, 512, 16);
+        for (int id = 1; id <= 3; id++) {
+            assertEquals(saved.find(id).toString(), seminar(id)
+                .toString());
+        }
+        saved.close();
+        file.delete();
+    }
+
+
+    /**
+     * Test an index naming a block twice is refused
+     *
+     * @throws Exception
+     */
+    public void testCorruptIndex() throws Exception {
+        File file = File.createTempFile("seminardb", ".bin");
+        file.delete();
+
+        MappedPool pool = new MappedPool(file, 1024);
+        ByteBuffer index = ByteBuffer.allocate(36);
+        index.putInt(2);
+        index.putInt(1).putLong(0).putInt(100);
+        index.putInt(2).putLong(64).putInt(100);
+        pool.saveIndex(index.array());
+        pool.close();
+
+        try {
+            SeminarDB.open(file, 1024, 16);
+            fail("Corrupt index was loaded");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().contains("ID 2"));
+        }
+        file.delete();
+    }
+
+
+    /**
+     * Test closing a full pool saves the index without growing it
+     *
+     * @throws Exception
+     */
+    public void testCloseDoesNotGrow() throws Exception {
+        File file = File.createTempFile("seminardb", ".bin");
+        file.delete();
+
+        SeminarDB saved = SeminarDB.open(file, 512, 16);
+        for (int id = 0; id < 4; id++) {
+            saved.insert(seminar(id));
+        }
+        systemOut().clearHistory();
+        saved.close();
+        assertEquals(systemOut().getHistory(), "");
+
+        saved = SeminarDB.open(file, 512, 16);
+        assertEquals(saved.find(3).toString(), seminar(3).toString());
+        saved.close();
+        file.delete();
+    }
+
+
+    /**
+     * Test a clear between the copy and the swap of a compaction step
+     *
+     * @throws Exception
+     */
+    public void testClearDuringStep() throws Exception {
+        PausingManager pausing = new PausingManager(1024);
+        database = new SeminarDB(pausing, 16);
+        database.insert(seminar(0));
+        database.insert(seminar(1));
+        database.delete(0);
+
+        pausing.between = () -> database.clear();
+        while (!database.compactConcurrentStep()) {
+            // Keep going
+        }
+        pausing.waiting.join();
+
+        // The clear freed the copy, the step must not free it again
+        assertEquals(pausing.numFreeBytes(), 1024L);
+        systemOut().clearHistory();
+        pausing.print();
+        assertFuzzyEquals(systemOut().getHistory(),
+            "Freeblock List:\n1024: 0\n");
+    }
+
+
+    /**
+     * Test an update between the copy and the swap of a compaction step
+     *
+     * @throws Exception
+     */
+    public void testUpdateDuringStep() throws Exception {
+        PausingManager pausing = new PausingManager(1024);
+        database = new SeminarDB(pausing, 16);
+        database.insert(seminar(0));
+        database.insert(seminar(1));
+        database.delete(0);
+
+        pausing.between = () -> {
+            try {
+                database.update(longSeminar(1));
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        database.compactConcurrentStep();
+        database.compactConcurrentStep();
+        pausing.waiting.join();
+
+        // The update wins and the copy is freed
+        assertEquals(database.find(1).toString(), longSeminar(1)
+            .toString());
+        assertEquals(pausing.numFreeBytes(), 1024L - 256);
+    }
+
+
+    /**
+     * Test searches, deletes and updates while the compactor runs
+     *
+     * @throws Exception
+     */
+    public void testBackgroundCompactionStress() throws Exception {
+        int count = 200;
+        for (int id = 0; id < count; id++) {
+            database.insert(seminar(id));
+        }
+        String[] expected = new String[count];
+        String[] updated = new String[count];
+        for (int id = 0; id < count; id++) {
+            expected[id] = seminar(id).toString();
+            updated[id] = longSeminar(id).toString();
+        }
+
+        database.startCompactor(1);
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[3];
+
+        // Two searchers check every record they find
+        for (int t = 0; t < 2; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 20000; i++) {
+                        int id = random.nextInt(count);
+                        Seminar sem = database.find(id);
+                        if (sem != null && !sem.toString().equals(
+                            updated[id])) {
+                            assertEquals(sem.toString(), expected[id]);
+                        }
+                    }
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+
+        // One writer frees every even record in a random order and
+        // grows every fourth record so it moves to a larger block
+        threads[2] = new Thread(() -> {
+            try {
+                Random random = new Random(7);
+                int[] ids = new int[count / 2];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = i * 2;
+                }
+                for (int i = ids.length - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    int swap = ids[i];
+                    ids[i] = ids[j];
+                    ids[j] = swap;
+                }
+                for (int id : ids) {
+                    database.delete(id);
+                    if (id % 4 == 0) {
+                        database.update(longSeminar(id + 1));
+                    }
+                    Thread.yield();
+                }
+            }
+            catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        database.stopCompactor();
+        assertNull(failure.get());
+
+        // Finish the work and check every record
+        while (!database.compactConcurrentStep()) {
+            // Keep going
+        }
+        for (int id = 0; id < count; id++) {
+            Seminar sem = database.find(id);
+            if (id % 2 == 0) {
+                assertNull(sem);
+            }
+            else if (id % 4 == 1) {
+                assertEquals(sem.toString(), updated[id]);
+            }
+            else {
+                assertEquals(sem.toString(), expected[id]);
+            }
+        }
+
+        // No block was lost or freed twice
+        assertTrue(memory.stats().getBytesCopied() > 0);
+        int blocks = count / 4;
+        assertEquals(memory.numFreeBytes(), memory.getCapacity() - blocks
+            * 128L - blocks * 256L);
+    }
+
+
+    /**
+     * Test clears while the compactor runs
+     * A clear between the copy and the swap of a step frees the copy,
+     * so the step must not free it again
+     *
+     * @throws Exception
+     */
+    public void testBackgroundCompactionClear() throws Exception {
+        database.startCompactor(0);
+
+        for (int round = 0; round < 200; round++) {
+            for (int id = 0; id < 16; id++) {
+                database.insert(seminar(id));
+            }
+            for (int id = 0; id < 16; id += 2) {
+                database.delete(id);
+            }
+            for (int id = 1; id < 16; id += 2) {
+                assertEquals(database.find(id).toString(), seminar(id)
+                    .toString());
+            }
+            database.clear();
+        }
+        database.stopCompactor();
+
+        // Any copy freed twice would show up as extra free space
+        assertEquals(memory.numFreeBytes(), memory.getCapacity());
+        assertEquals(memory.stats().getRequestedBytes(), 0L);
+
+        for (int id = 0; id < 8; id++) {
+            database.insert(seminar(id));
+        }
+        assertEquals(memory.numFreeBytes(), memory.getCapacity() - 8 * 128L);
+    }
+
+
+    /**
+     * A memory manager that starts a change of the database right
+     * after a compaction step copies a record, so the change waits on
+     * the lock between the step's copy and its swap
+     */
+    private static class PausingManager extends MemoryManager {
+
+        // The change to start after the next copy
+        private Runnable between;
+
+        // The thread running the change
+        private Thread waiting;
+
+        /**
+         * Constructor for PausingManager
+         *
+         * @param capacity
+         *            The initial capacity
+         */
+        public PausingManager(int capacity) {
+            super(capacity);
+        }
+
+
+        /**
+         * Copy a record, then start the change and wait until it is
+         * queued on the database lock
+         *
+         * @param handle
+         *            The handle of the record
+         * @return the copy's handle
+         */
+        @Override
+        public Handle copyLower(Handle handle) {
+            Handle copy = super.copyLower(handle);
+            if (copy != handle && between != null) {
+                waiting = new Thread(between);
+                between = null;
+                waiting.start();
+                while (waiting.getState() != Thread.State.WAITING) {
+                    Thread.yield();
+                }
+            }
+            return copy;
+        }
+    }
+
+}
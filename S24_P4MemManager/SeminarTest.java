@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import student.TestCase;
 
 // -------------------------------------------------------------------------
@@ -58,4 +59,28 @@ public class SeminarTest extends TestCase {
         System.out.println(sem2Print);
         assertTrue(semPrint.equals(sem2Print));
     }
+
+
+    /**
+     * Check deserializing from a view of a buffer
+     *
+     * @throws Exception
+     */
+    public void testDeserializeStream() throws Exception {
+        String[] keywords = { "Good", "Bad", "Ugly" };
+        Seminar mysem = new Seminar(1729, "Seminar Title", "2405231000", 75,
+            (short)15, (short)33, 125, keywords, "This is a great seminar");
+        byte[] bytes = mysem.serialize();
+
+        // Put the record in the middle of a larger buffer
+        ByteBuffer buffer = ByteBuffer.allocateDirect(200);
+        buffer.position(50);
+        buffer.put(bytes);
+        buffer.position(50);
+        buffer.limit(50 + bytes.length);
+
+        Seminar mysem2 = Seminar.deserialize(new ByteBufferInputStream(buffer
+            .asReadOnlyBuffer()));
+        assertTrue(mysem.toString().equals(mysem2.toString()));
+    }
 }
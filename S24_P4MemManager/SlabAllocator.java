@@ -0,0 +1,291 @@
+import java.util.Arrays;
+
+/**
+ * This class packs small records into slabs.
+ * A slab is one buddy block cut into equal slots of one size class.
+ * Size classes are multiples of 16 bytes up to 1 KB, so a 129 byte
+ * record takes 144 bytes instead of a 256 byte buddy block.
+ *
+ * Slabs are found by address. The pool is split into regions the
+ * size of a slab, and region r is the buddy block starting at
+ * r * slabSize. Each region that holds a slab keeps its size class,
+ * a bitmap of used slots and links in a list of slabs of its class
+ * with free slots. All of it is kept in primitive arrays.
+ *
+ * The memory manager owns the buddy blocks and calls this class
+ * while holding its lock.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class SlabAllocator {
+
+    // Size classes are multiples of this
+    public static final int CLASS_SIZE = 16;
+
+    // Largest record kept in a slab
+    public static final int MAX_SIZE = 1024;
+
+    // 2^slabOrder = bytes in a slab
+    private int slabOrder;
+
+    // Number of 64 bit words in a slot bitmap
+    private int words;
+
+    // Per region: size class, 0 if the region is not a slab
+    private int[] classOf;
+
+    // Per region: number of used slots
+    private int[] used;
+
+    // Per region: bitmap of used slots, words longs each
+    private long[] slots;
+
+    // Per region: links in the list of slabs with free slots
+    private int[] next;
+    private int[] prev;
+
+    // Per size class: first slab with free slots, -1 if none
+    private int[] partial;
+
+    /**
+     * Constructor for SlabAllocator
+     *
+     * @param slabOrder
+     *            2^slabOrder is the size of each slab
+     */
+    public SlabAllocator(int slabOrder) {
+        this.slabOrder = slabOrder;
+        this.words = Math.max(1, (1 << slabOrder) / CLASS_SIZE / 64);
+
+        classOf = new int[0];
+        used = new int[0];
+        slots = new long[0];
+        next = new int[0];
+        prev = new int[0];
+
+        partial = new int[MAX_SIZE / CLASS_SIZE + 1];
+        Arrays.fill(partial, -1);
+    }
+
+
+    /**
+     * Return true if a record of this size goes in a slab
+     * Each slab must hold at least two records to be worth it
+     *
+     * @param size
+     *            The record length
+     * @return true if the record is small
+     */
+    public boolean fits(int size) {
+        return size <= MAX_SIZE && sizeClass(size) * CLASS_SIZE * 2 <= (1
+            << slabOrder);
+    }
+
+
+    /**
+     * Return the order of the buddy blocks used for slabs
+     *
+     * @return the slab order
+     */
+    public int getSlabOrder() {
+        return slabOrder;
+    }
+
+
+    /**
+     * Take a free slot for a record
+     *
+     * @param size
+     *            The record length
+     * @return the address, or -1 if a new slab is needed first
+     */
+    public int take(int size) {
+        int c = sizeClass(size);
+        int region = partial[c];
+        if (region < 0) {
+            return -1;
+        }
+
+        // Find the first unused slot
+        int count = slotCount(c);
+        int slot = -1;
+        for (int w = 0; slot < 0; w++) {
+            long free = ~slots[region * words + w];
+            if (count - w * 64 < 64) {
+                free &= (1L << (count - w * 64)) - 1;
+            }
+            if (free != 0) {
+                slot = w * 64 + Long.numberOfTrailingZeros(free);
+            }
+        }
+
+        slots[region * words + (slot >>> 6)] |= 1L << slot;
+        used[region]++;
+        if (used[region] == count) {
+            unlink(region);
+        }
+
+        return (region << slabOrder) + slot * c * CLASS_SIZE;
+    }
+
+
+    /**
+     * Turn a free buddy block into an empty slab
+     *
+     * @param position
+     *            The address of a block of the slab order
+     * @param size
+     *            A record length of the slab's size class
+     */
+    public void addSlab(int position, int size) {
+        int region = position >> slabOrder;
+        ensure(region + 1);
+
+        classOf[region] = sizeClass(size);
+        used[region] = 0;
+        Arrays.fill(slots, region * words, (region + 1) * words, 0);
+        link(region);
+    }
+
+
+    /**
+     * Return true if an address is inside a slab
+     *
+     * @param position
+     *            The address of a record
+     * @return true if in a slab
+     */
+    public boolean isSlab(int position) {
+        int region = position >> slabOrder;
+        return region < classOf.length && classOf[region] != 0;
+    }
+
+
+    /**
+     * Free the slot of a record
+     *
+     * @param position
+     *            The address of the record
+     * @return the address of the slab if it is now empty and should
+     *         go back to the buddy free list, otherwise -1
+     */
+    public int release(int position) {
+        int region = position >> slabOrder;
+        int base = region << slabOrder;
+        int c = classOf[region];
+        int slot = (position - base) / (c * CLASS_SIZE);
+
+        if (used[region] == slotCount(c)) {
+            // Was full, has room again
+            link(region);
+        }
+
+        slots[region * words + (slot >>> 6)] &= ~(1L << slot);
+        used[region]--;
+
+        if (used[region] == 0) {
+            unlink(region);
+            classOf[region] = 0;
+            return base;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Return the number of bytes a record really takes in a slab
+     *
+     * @param size
+     *            The record length
+     * @return the slot size
+     */
+    public int slotSize(int size) {
+        return sizeClass(size) * CLASS_SIZE;
+    }
+
+
+    /**
+     * Return the size class of a record length
+     *
+     * @param size
+     *            The record length
+     * @return the size class, slot size over CLASS_SIZE
+     */
+    private int sizeClass(int size) {
+        return (size + CLASS_SIZE - 1) / CLASS_SIZE;
+    }
+
+
+    /**
+     * Return the number of slots in a slab of a size class
+     *
+     * @param c
+     *            The size class
+     * @return the number of slots
+     */
+    private int slotCount(int c) {
+        return (1 << slabOrder) / (c * CLASS_SIZE);
+    }
+
+
+    /**
+     * Put a slab at the front of its class's list
+     *
+     * @param region
+     *            The slab's region
+     */
+    private void link(int region) {
+        int c = classOf[region];
+        int head = partial[c];
+
+        prev[region] = -1;
+        next[region] = head;
+        if (head >= 0) {
+            prev[head] = region;
+        }
+        partial[c] = region;
+    }
+
+
+    /**
+     * Take a slab out of its class's list
+     *
+     * @param region
+     *            The slab's region
+     */
+    private void unlink(int region) {
+        if (prev[region] >= 0) {
+            next[prev[region]] = next[region];
+        }
+        else {
+            partial[classOf[region]] = next[region];
+        }
+
+        if (next[region] >= 0) {
+            prev[next[region]] = prev[region];
+        }
+    }
+
+
+    /**
+     * Make room for at least some regions
+     *
+     * @param regions
+     *            The number of regions needed
+     */
+    private void ensure(int regions) {
+        if (regions <= classOf.length) {
+            return;
+        }
+
+        int newLength = Math.max(regions, classOf.length * 2);
+        classOf = Arrays.copyOf(classOf, newLength);
+        used = Arrays.copyOf(used, newLength);
+        slots = Arrays.copyOf(slots, newLength * words);
+        next = Arrays.copyOf(next, newLength);
+        prev = Arrays.copyOf(prev, newLength);
+    }
+
+}
@@ -0,0 +1,92 @@
+import student.TestCase;
+
+/**
+ * Test the methods of the SlabAllocator class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class SlabAllocatorTest extends TestCase {
+
+    private SlabAllocator slabs;
+
+    /**
+     * Set up the test object with 1 KB slabs
+     */
+    public void setUp() {
+        slabs = new SlabAllocator(10);
+    }
+
+
+    /**
+     * Test which sizes go in slabs
+     */
+    public void testFits() {
+        assertEquals(slabs.getSlabOrder(), 10);
+        assertTrue(slabs.fits(1));
+        assertTrue(slabs.fits(512));
+        assertFalse(slabs.fits(513));
+
+        slabs = new SlabAllocator(12);
+        assertTrue(slabs.fits(1024));
+        assertFalse(slabs.fits(1025));
+
+        assertEquals(slabs.slotSize(129), 144);
+        assertEquals(slabs.slotSize(16), 16);
+    }
+
+
+    /**
+     * Test records are packed one slot after another
+     */
+    public void testTakeRelease() {
+        // No slab yet
+        assertEquals(slabs.take(129), -1);
+
+        slabs.addSlab(2048, 129);
+        assertTrue(slabs.isSlab(2048));
+        assertTrue(slabs.isSlab(3071));
+        assertFalse(slabs.isSlab(1024));
+        assertFalse(slabs.isSlab(4096));
+
+        // 1024 / 144 = 7 slots
+        for (int i = 0; i < 7; i++) {
+            assertEquals(slabs.take(130), 2048 + i * 144);
+        }
+        assertEquals(slabs.take(129), -1);
+
+        // Freed slot is reused
+        assertEquals(slabs.release(2048 + 144), -1);
+        assertEquals(slabs.take(140), 2048 + 144);
+
+        // Last record out gives the slab back
+        for (int i = 0; i < 6; i++) {
+            assertEquals(slabs.release(2048 + i * 144), -1);
+        }
+        assertEquals(slabs.release(2048 + 6 * 144), 2048);
+        assertFalse(slabs.isSlab(2048));
+        assertEquals(slabs.take(129), -1);
+    }
+
+
+    /**
+     * Test a slab with more than 64 slots
+     */
+    public void testManySlots() {
+        slabs = new SlabAllocator(12);
+        slabs.addSlab(4096, 16);
+
+        // 4096 / 16 = 256 slots over four bitmap words
+        for (int i = 0; i < 256; i++) {
+            assertEquals(slabs.take(10), 4096 + 16 * i);
+        }
+        assertEquals(slabs.take(10), -1);
+
+        assertEquals(slabs.release(4096 + 16 * 200), -1);
+        assertEquals(slabs.release(4096 + 16 * 64), -1);
+        assertEquals(slabs.take(16), 4096 + 16 * 64);
+        assertEquals(slabs.take(16), 4096 + 16 * 200);
+    }
+
+}
@@ -0,0 +1,504 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class places records with Two-Level Segregated Fit (TLSF).
+ * Free blocks are kept in lists by size class. The first level is
+ * the power of two below the size and the second level splits each
+ * power of two into 16 equal ranges, so a class is found with two
+ * bit scans and insert and remove take constant time.
+ *
+ * Blocks are rounded to 8 bytes instead of a power of two, so much
+ * less space is lost inside blocks than with the buddy method.
+ * A block found for a record is split and the rest goes back, and
+ * a freed block merges with free neighbours on both sides.
+ *
+ * Every block starts with an 8 byte header in the pool: its size
+ * with a free flag, then the address of the block before it. A free
+ * block keeps the links of its list in the next 8 bytes. The handle
+ * of a record points just past the header. Sizes and addresses are
+ * ints, so the pool is at most 1 GB.
+ *
+ * Like the memory manager, changes to the lists hold this object's
+ * lock, record bytes are copied outside it and reads never lock.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class TlsfAllocator implements Allocator {
+
+    // Second level ranges per power of two, 2^SL_LOG
+    private static final int SL_LOG = 4;
+    private static final int SL_COUNT = 1 << SL_LOG;
+
+    // Block sizes are multiples of this
+    private static final int ALIGN = 8;
+
+    // Bytes of header in front of every record
+    private static final int HEADER = 8;
+
+    // Header plus the two list links of a free block
+    private static final int MIN_BLOCK = 16;
+
+    // Sizes below this are all in first level 0, ALIGN apart
+    private static final int SMALL = SL_COUNT * ALIGN;
+    private static final int SMALL_LOG = 7;
+
+    // First levels needed for any int size
+    private static final int FL_COUNT = 32 - SMALL_LOG + 1;
+
+    // Marks a free block in the size word of its header
+    private static final int FREE = 1;
+
+    // Largest pool whose sizes and addresses fit in an int
+    private static final long MAX_CAPACITY = 1L << 30;
+
+    // The actual memory pool
+    private MemoryPool memory;
+
+    // The capacity of the memory pool
+    private int capacity;
+
+    // Bytes in free blocks, headers included
+    private int freebytes;
+
+    // Bit fl is set if first level fl has a free block
+    private int flBitmap;
+
+    // Per first level, bit sl is set if that list is not empty
+    private int[] slBitmap;
+
+    // First free block of every list, -1 if empty
+    private int[] heads;
+
+    // Address of the block that ends the pool
+    private int last;
+
+    /**
+     * Constructor for TlsfAllocator
+     * The pool is kept on the heap
+     *
+     * @param capacity
+     *            The initial capacity must be a power of two
+     */
+    public TlsfAllocator(int capacity) {
+        this(new BufferPool(capacity, false));
+    }
+
+
+    /**
+     * Constructor for TlsfAllocator using the given pool
+     *
+     * @param pool
+     *            The memory pool, capacity must be a power of two
+     *            from 16 bytes up to 1 GB
+     */
+    public TlsfAllocator(MemoryPool pool) {
+        if (pool.getCapacity() > MAX_CAPACITY) {
+            throw new IllegalArgumentException(
+                "TLSF pools are at most 1 GB");
+        }
+        memory = pool;
+        capacity = (int)pool.getCapacity();
+
+        slBitmap = new int[FL_COUNT];
+        heads = new int[FL_COUNT * SL_COUNT];
+        Arrays.fill(heads, -1);
+
+        // The whole pool is one free block
+        memory.putInt(4, -1);
+        link(0, capacity);
+        last = 0;
+    }
+
+
+    /**
+     * Insert the space array into memory
+     *
+     * @param space
+     *            The byte array to enter
+     * @param size
+     *            The size of the byte array
+     * @return a Handle representing where it was placed in memory
+     */
+    @Override
+    public Handle insert(byte[] space, int size) {
+        // Claim a block, then copy outside the lock
+        int position = allocate(size);
+        memory.write(position, space, size);
+
+        return new Handle(position, size);
+    }
+
+
+    /**
+     * Take a block for a record out of the free lists, growing the
+     * pool if needed
+     *
+     * @param size
+     *            The record length
+     * @return the address of the record, just past the header
+     */
+    private synchronized int allocate(int size) {
+        int need = Math.max(MIN_BLOCK, HEADER + (size + ALIGN - 1) / ALIGN
+            * ALIGN);
+
+        // Every block in the list found is at least need bytes
+        int wanted = searchIndex(need);
+        int index = findFrom(wanted);
+        while (index < 0) {
+            resize();
+            index = findFrom(wanted);
+        }
+
+        int block = heads[index];
+        int blockSize = sizeOf(block);
+        unlink(block, blockSize);
+
+        // Give back what the record does not need
+        if (blockSize - need >= MIN_BLOCK) {
+            int rest = block + need;
+            memory.putInt(rest + 4, block);
+            setPrevious(rest + blockSize - need, rest);
+            link(rest, blockSize - need);
+            blockSize = need;
+        }
+
+        memory.putInt(block, blockSize);
+        return block + HEADER;
+    }
+
+
+    /**
+     * Get a record from memory and put it into space
+     *
+     * @param space
+     *            The array to place record into
+     * @param handle
+     *            The handle pointing to the record in memory
+     * @param size
+     *            The size of the space array
+     * @return true if successful
+     */
+    @Override
+    public boolean get(byte[] space, Handle handle, int size) {
+        if (handle.getLength() != size) {
+            // Space array and length of record do not line up
+            return false;
+        }
+
+        memory.read(handle.getAddress(), space, size);
+        return true;
+    }
+
+
+    /**
+     * Return a read-only view of a record's bytes in the pool
+     *
+     * @param handle
+     *            The handle of the record
+     * @return a read-only buffer holding the record
+     */
+    @Override
+    public ByteBuffer view(Handle handle) {
+        return memory.view(handle.getAddress(), handle.getLength());
+    }
+
+
+    /**
+     * Frees the record of a handle
+     *
+     * @param handle
+     *            The handle representing the record
+     */
+    @Override
+    public synchronized void remove(Handle handle) {
+        release((int)handle.getAddress() - HEADER);
+    }
+
+
+    /**
+     * Give a used block back, merging it with free neighbours
+     *
+     * @param block
+     *            The address of the block's header
+     */
+    private synchronized void release(int block) {
+        int size = sizeOf(block);
+
+        int next = block + size;
+        if (next < capacity && isFree(next)) {
+            int nextSize = sizeOf(next);
+            unlink(next, nextSize);
+            size += nextSize;
+        }
+
+        int prev = memory.getInt(block + 4);
+        if (prev >= 0 && isFree(prev)) {
+            int prevSize = sizeOf(prev);
+            unlink(prev, prevSize);
+            size += prevSize;
+            block = prev;
+        }
+
+        setPrevious(block + size, block);
+        link(block, size);
+    }
+
+
+    /**
+     * Double the pool, the new half is one free block
+     */
+    private synchronized void resize() {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException(
+                "Memory pool cannot grow past 1 GB");
+        }
+        int newCapacity = capacity * 2;
+
+        // Announce to console out
+        String out;
+        out = String.format("Memory pool expanded to %d bytes", newCapacity);
+        System.out.println(out);
+
+        memory.grow(newCapacity);
+
+        // Add the new half as a used block and free it, so it merges
+        // with the block that ended the pool
+        int block = capacity;
+        memory.putInt(block, capacity);
+        memory.putInt(block + 4, last);
+        capacity = newCapacity;
+        last = block;
+
+        release(block);
+    }
+
+
+    /**
+     * Free every record at once, the pool keeps its capacity
+     */
+    @Override
+    public synchronized void clear() {
+        flBitmap = 0;
+        Arrays.fill(slBitmap, 0);
+        Arrays.fill(heads, -1);
+        freebytes = 0;
+
+        // The whole pool is one free block
+        memory.putInt(4, -1);
+        link(0, capacity);
+        last = 0;
+    }
+
+
+    /**
+     * Return the number of free bytes
+     * Headers of free blocks count as free
+     *
+     * @return free bytes
+     */
+    @Override
+    public synchronized long numFreeBytes() {
+        return freebytes;
+    }
+
+
+    /**
+     * Return the capacity
+     *
+     * @return capacity
+     */
+    @Override
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Print the free blocks in address order as size: address
+     */
+    @Override
+    public synchronized void print() {
+        System.out.println("Freeblock List:");
+
+        if (freebytes == 0) {
+            System.out.println("There are no freeblocks in the memory pool");
+            return;
+        }
+
+        String out;
+        for (int block = 0; block < capacity; block += sizeOf(block)) {
+            if (isFree(block)) {
+                out = String.format("%d: %d", sizeOf(block), block);
+                System.out.println(out);
+            }
+        }
+    }
+
+
+    /**
+     * Return the list of a free block size
+     *
+     * @param size
+     *            The block size
+     * @return first level times SL_COUNT plus second level
+     */
+    private int indexOf(int size) {
+        if (size < SMALL) {
+            return size / ALIGN;
+        }
+
+        int high = 31 - Integer.numberOfLeadingZeros(size);
+        int sl = (size >>> (high - SL_LOG)) - SL_COUNT;
+        int fl = high - SMALL_LOG + 1;
+        return fl * SL_COUNT + sl;
+    }
+
+
+    /**
+     * Return the first list whose blocks are all large enough
+     *
+     * @param size
+     *            The block size needed
+     * @return the list index
+     */
+    private int searchIndex(int size) {
+        if (size >= SMALL) {
+            // Round up to the next second level range
+            int high = 31 - Integer.numberOfLeadingZeros(size);
+            size += (1 << (high - SL_LOG)) - 1;
+        }
+        return indexOf(size);
+    }
+
+
+    /**
+     * Return the first list at or after an index with a free block
+     *
+     * @param index
+     *            The list index to start from
+     * @return the list index or -1 if there is none
+     */
+    private int findFrom(int index) {
+        int fl = index / SL_COUNT;
+        int bits = slBitmap[fl] & (-1 << (index % SL_COUNT));
+
+        if (bits == 0) {
+            // Nothing left in this first level, take a larger one
+            int levels = flBitmap & (-1 << (fl + 1));
+            if (levels == 0) {
+                return -1;
+            }
+            fl = Integer.numberOfTrailingZeros(levels);
+            bits = slBitmap[fl];
+        }
+
+        return fl * SL_COUNT + Integer.numberOfTrailingZeros(bits);
+    }
+
+
+    /**
+     * Mark a block free and put it at the front of its list
+     *
+     * @param block
+     *            The address of the block
+     * @param size
+     *            The size of the block
+     */
+    private void link(int block, int size) {
+        int index = indexOf(size);
+        int head = heads[index];
+
+        memory.putInt(block, size | FREE);
+        memory.putInt(block + HEADER, head);
+        memory.putInt(block + HEADER + 4, -1);
+        if (head >= 0) {
+            memory.putInt(head + HEADER + 4, block);
+        }
+
+        heads[index] = block;
+        slBitmap[index / SL_COUNT] |= 1 << (index % SL_COUNT);
+        flBitmap |= 1 << (index / SL_COUNT);
+        freebytes += size;
+    }
+
+
+    /**
+     * Take a free block out of its list
+     *
+     * @param block
+     *            The address of the block
+     * @param size
+     *            The size of the block
+     */
+    private void unlink(int block, int size) {
+        int index = indexOf(size);
+        int next = memory.getInt(block + HEADER);
+        int prev = memory.getInt(block + HEADER + 4);
+
+        if (prev >= 0) {
+            memory.putInt(prev + HEADER, next);
+        }
+        else {
+            heads[index] = next;
+        }
+        if (next >= 0) {
+            memory.putInt(next + HEADER + 4, prev);
+        }
+
+        if (heads[index] < 0) {
+            int fl = index / SL_COUNT;
+            slBitmap[fl] &= ~(1 << (index % SL_COUNT));
+            if (slBitmap[fl] == 0) {
+                flBitmap &= ~(1 << fl);
+            }
+        }
+        freebytes -= size;
+    }
+
+
+    /**
+     * Point the block at an address back to the block before it
+     * Keeps track of the last block when the address is the end
+     *
+     * @param block
+     *            The address of the block, may be the capacity
+     * @param previous
+     *            The address of the block before it
+     */
+    private void setPrevious(int block, int previous) {
+        if (block < capacity) {
+            memory.putInt(block + 4, previous);
+        }
+        else {
+            last = previous;
+        }
+    }
+
+
+    /**
+     * Return the size of a block
+     *
+     * @param block
+     *            The address of the block
+     * @return the size in bytes, header included
+     */
+    private int sizeOf(int block) {
+        return memory.getInt(block) & ~FREE;
+    }
+
+
+    /**
+     * Return true if a block is free
+     *
+     * @param block
+     *            The address of the block
+     * @return true if free
+     */
+    private boolean isFree(int block) {
+        return (memory.getInt(block) & FREE) != 0;
+    }
+
+}
@@ -0,0 +1,224 @@
+import java.util.Random;
+import student.TestCase;
+
+/**
+ * Test the methods of the TlsfAllocator class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class TlsfAllocatorTest extends TestCase {
+
+    private TlsfAllocator memory;
+
+    /**
+     * Set up the test object
+     */
+    public void setUp() {
+        memory = new TlsfAllocator(256);
+    }
+
+
+    /**
+     * Test the initial pool is one free block
+     */
+    public void testInitial() {
+        assertEquals(memory.getCapacity(), 256);
+        assertEquals(memory.numFreeBytes(), 256);
+
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "256: 0\n");
+    }
+
+
+    /**
+     * Test a pool too large for int addresses is refused
+     */
+    public void testTooLarge() {
+        Exception thrown = null;
+        try {
+            new TlsfAllocator(new LazyPool(1L << 31, false));
+        }
+        catch (IllegalArgumentException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+    }
+
+
+    /**
+     * Test records cannot be reserved
+     */
+    public void testReserve() {
+        assertFalse(memory.reserve(new Handle(0, 16)));
+        assertEquals(memory.numFreeBytes(), 256);
+    }
+
+
+    /**
+     * Test records are rounded to 8 bytes plus a header
+     */
+    public void testInsertSplits() {
+        byte[] space = { 1, 2, 3, 4, 5 };
+        Handle handle1 = memory.insert(space, 5);
+        Handle handle2 = memory.insert(new byte[20], 20);
+
+        // Payload follows an 8 byte header
+        assertEquals(handle1.getAddress(), 8);
+        assertEquals(handle1.getLength(), 5);
+        assertEquals(handle2.getAddress(), 16 + 8);
+        assertEquals(memory.numFreeBytes(), 256 - 16 - 32);
+
+        byte[] result = new byte[5];
+        assertTrue(memory.get(result, handle1, 5));
+        assertEquals(result[4], 5);
+        assertFalse(memory.get(result, handle2, 5));
+        assertEquals(memory.view(handle1).get(2), 3);
+
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "208: 48\n");
+    }
+
+
+    /**
+     * Test freed blocks merge with both neighbours
+     */
+    public void testRemoveMerges() {
+        byte[] space = new byte[40];
+        Handle handle1 = memory.insert(space, 40);
+        Handle handle2 = memory.insert(space, 40);
+        Handle handle3 = memory.insert(space, 40);
+
+        memory.remove(handle1);
+        memory.remove(handle3);
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "48: 0\n" + "160: 96\n");
+
+        // Middle block joins both sides
+        memory.remove(handle2);
+        assertEquals(memory.numFreeBytes(), 256);
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "256: 0\n");
+    }
+
+
+    /**
+     * Test a freed block is reused by a record that fits
+     */
+    public void testReuse() {
+        byte[] space = new byte[100];
+        Handle handle1 = memory.insert(space, 100);
+        memory.insert(space, 100);
+
+        memory.remove(handle1);
+        Handle handle3 = memory.insert(space, 60);
+        assertEquals(handle3.getAddress(), 8);
+    }
+
+
+    /**
+     * Test the pool grows and the new half joins a free last block
+     */
+    public void testResize() {
+        byte[] space = new byte[200];
+        Handle handle1 = memory.insert(space, 200);
+
+        systemOut().clearHistory();
+        Handle handle2 = memory.insert(space, 200);
+        assertFuzzyEquals(systemOut().getHistory(),
+            "Memory pool expanded to 512 bytes\n");
+        assertEquals(memory.getCapacity(), 512);
+
+        // The 48 byte tail of the old pool merged with the new half
+        assertEquals(handle2.getAddress(), 208 + 8);
+
+        memory.remove(handle1);
+        memory.remove(handle2);
+        assertEquals(memory.numFreeBytes(), 512);
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "512: 0\n");
+    }
+
+
+    /**
+     * Test a full pool prints no free blocks
+     */
+    public void testFull() {
+        byte[] space = new byte[248];
+        memory.insert(space, 248);
+        assertEquals(memory.numFreeBytes(), 0);
+
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "There are no freeblocks in the memory pool\n");
+    }
+
+
+    /**
+     * Test random inserts and removes keep records intact
+     */
+    public void testRandom() {
+        memory = new TlsfAllocator(new BufferPool(64, true));
+        Random random = new Random(7);
+        Handle[] live = new Handle[50];
+        byte[] space = new byte[600];
+
+        for (int i = 0; i < 5000; i++) {
+            int slot = random.nextInt(live.length);
+            if (live[slot] != null) {
+                byte[] result = new byte[live[slot].getLength()];
+                assertTrue(memory.get(result, live[slot], result.length));
+                assertEquals(result[0], (byte)slot);
+                assertEquals(result[result.length - 1], (byte)slot);
+                memory.remove(live[slot]);
+                live[slot] = null;
+            }
+            else {
+                int size = 1 + random.nextInt(600);
+                space[0] = (byte)slot;
+                space[size - 1] = (byte)slot;
+                live[slot] = memory.insert(space, size);
+            }
+        }
+
+        for (int i = 0; i < live.length; i++) {
+            if (live[i] != null) {
+                memory.remove(live[i]);
+            }
+        }
+        assertEquals(memory.numFreeBytes(), memory.getCapacity());
+    }
+
+
+    /**
+     * Test freeing every record at once
+     */
+    public void testClear() {
+        memory.insert(new byte[300], 300);
+        memory.insert(new byte[20], 20);
+        assertEquals(memory.getCapacity(), 512L);
+
+        memory.clear();
+        assertEquals(memory.numFreeBytes(), 512L);
+
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(),
+            "Freeblock List:\n512: 0\n");
+
+        Handle handle = memory.insert(new byte[20], 20);
+        assertEquals(handle.getAddress(), 8L);
+    }
+}
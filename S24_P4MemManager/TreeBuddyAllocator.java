@@ -0,0 +1,361 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class places records with the buddy method using a tree.
+ * The pool is an implicit complete binary tree kept in one array,
+ * node 1 is the whole pool and node i has children 2i and 2i + 1.
+ * Each node holds one bit per order that has a free block under it,
+ * so finding, freeing and merging a block are walks of at most
+ * log(capacity) array slots and there are no lists to keep.
+ *
+ * A block is taken from the smallest order with a free block and
+ * the lowest address in that order, the same choice MemoryManager
+ * makes, so both print the same free blocks. Blocks are at least
+ * 16 bytes to keep the tree small, smaller records differ there.
+ * Addresses are ints, so the pool is at most 1 GB.
+ *
+ * Like the memory manager, changes to the tree hold this object's
+ * lock, record bytes are copied outside it and reads never lock.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class TreeBuddyAllocator implements Allocator {
+
+    // Smallest block is 2^MIN_ORDER bytes
+    private static final int MIN_ORDER = 4;
+
+    // Largest pool whose addresses fit in an int
+    private static final int MAX_ORDER = 30;
+
+    // The actual memory pool
+    private MemoryPool memory;
+
+    // The capacity of the memory pool
+    private int capacity;
+
+    // 2^n = capacity
+    private int n;
+
+    // Order of the leaves of the tree
+    private int minOrder;
+
+    // Number of free bytes
+    private int freebytes;
+
+    // Per node, bit k is set if a free block of order k is under it
+    // A node is itself free when only its own order's bit is set
+    private int[] tree;
+
+    /**
+     * Constructor for TreeBuddyAllocator
+     * The pool is kept on the heap
+     *
+     * @param capacity
+     *            The initial capacity must be a power of two
+     */
+    public TreeBuddyAllocator(int capacity) {
+        this(new BufferPool(capacity, false));
+    }
+
+
+    /**
+     * Constructor for TreeBuddyAllocator using the given pool
+     *
+     * @param pool
+     *            The memory pool, capacity must be a power of two of
+     *            at most 1 GB
+     */
+    public TreeBuddyAllocator(MemoryPool pool) {
+        if (pool.getCapacity() > 1L << MAX_ORDER) {
+            throw new IllegalArgumentException(
+                "Tree pools are at most 1 GB");
+        }
+        memory = pool;
+        capacity = (int)pool.getCapacity();
+        n = Integer.numberOfTrailingZeros(capacity);
+        minOrder = Math.min(MIN_ORDER, n);
+        freebytes = capacity;
+
+        // The whole pool is one free block
+        tree = new int[2 << (n - minOrder)];
+        tree[1] = 1 << n;
+    }
+
+
+    /**
+     * Insert the space array into memory
+     *
+     * @param space
+     *            The byte array to enter
+     * @param size
+     *            The size of the byte array
+     * @return a Handle representing where it was placed in memory
+     */
+    @Override
+    public Handle insert(byte[] space, int size) {
+        // Claim a block, then copy outside the lock
+        int position = allocate(orderOf(size));
+        memory.write(position, space, size);
+
+        return new Handle(position, size);
+    }
+
+
+    /**
+     * Take the lowest free block of the smallest order that fits,
+     * splitting it down to blockN and resizing if needed
+     *
+     * @param blockN
+     *            The order wanted
+     * @return the starting address of the block
+     */
+    private synchronized int allocate(int blockN) {
+        while ((tree[1] & (-1 << blockN)) == 0) {
+            resize();
+        }
+        int k = Integer.numberOfTrailingZeros(tree[1] & (-1 << blockN));
+
+        // Walk down to the lowest free block of order k
+        int node = 1;
+        int order = n;
+        while (order > k) {
+            node *= 2;
+            if ((tree[node] & (1 << k)) == 0) {
+                node++;
+            }
+            order--;
+        }
+
+        // Split down to blockN, the upper halves stay free
+        while (order > blockN) {
+            order--;
+            tree[node * 2 + 1] = 1 << order;
+            node *= 2;
+        }
+
+        tree[node] = 0;
+        update(node, blockN);
+        freebytes -= 1 << blockN;
+
+        return (node - (1 << (n - blockN))) << blockN;
+    }
+
+
+    /**
+     * Get a record from memory and put it into space
+     *
+     * @param space
+     *            The array to place record into
+     * @param handle
+     *            The handle pointing to the record in memory
+     * @param size
+     *            The size of the space array
+     * @return true if successful
+     */
+    @Override
+    public boolean get(byte[] space, Handle handle, int size) {
+        if (handle.getLength() != size) {
+            // Space array and length of record do not line up
+            return false;
+        }
+
+        memory.read(handle.getAddress(), space, size);
+        return true;
+    }
+
+
+    /**
+     * Return a read-only view of a record's bytes in the pool
+     *
+     * @param handle
+     *            The handle of the record
+     * @return a read-only buffer holding the record
+     */
+    @Override
+    public ByteBuffer view(Handle handle) {
+        return memory.view(handle.getAddress(), handle.getLength());
+    }
+
+
+    /**
+     * Frees the block of a handle, merging it with its buddies
+     *
+     * @param handle
+     *            The handle representing the block
+     */
+    @Override
+    public synchronized void remove(Handle handle) {
+        int blockN = orderOf(handle.getLength());
+        int node = (1 << (n - blockN)) + (int)(handle.getAddress() >> blockN);
+
+        tree[node] = 1 << blockN;
+        update(node, blockN);
+        freebytes += 1 << blockN;
+    }
+
+
+    /**
+     * Recompute the nodes above a changed node
+     * A node whose halves are both free becomes one free block
+     *
+     * @param node
+     *            The changed node
+     * @param order
+     *            The order of its block
+     */
+    private void update(int node, int order) {
+        while (node > 1) {
+            node /= 2;
+            order++;
+
+            int left = tree[node * 2];
+            int right = tree[node * 2 + 1];
+            int half = 1 << (order - 1);
+
+            if (left == half && right == half) {
+                tree[node] = 1 << order;
+            }
+            else {
+                tree[node] = left | right;
+            }
+        }
+    }
+
+
+    /**
+     * Doubles the memory pool
+     * The old tree becomes the left half of the new one
+     */
+    private synchronized void resize() {
+        if (n >= MAX_ORDER) {
+            throw new IllegalStateException(
+                "Memory pool cannot grow past 1 GB");
+        }
+        int newCapacity = capacity * 2;
+
+        // Announce to console out
+        String out;
+        out = String.format("Memory pool expanded to %d bytes", newCapacity);
+        System.out.println(out);
+
+        memory.grow(newCapacity);
+
+        // Each level of the old tree moves one level down
+        int[] grown = new int[tree.length * 2];
+        for (int depth = 0; depth <= n - minOrder; depth++) {
+            System.arraycopy(tree, 1 << depth, grown, 2 << depth,
+                1 << depth);
+        }
+
+        // New half is free and merges if the old pool was all free
+        grown[3] = 1 << n;
+        tree = grown;
+        freebytes += capacity;
+        capacity = newCapacity;
+        n++;
+        update(3, n - 1);
+    }
+
+
+    /**
+     * Free every record at once, the pool keeps its capacity
+     */
+    @Override
+    public synchronized void clear() {
+        Arrays.fill(tree, 0);
+        tree[1] = 1 << n;
+        freebytes = capacity;
+    }
+
+
+    /**
+     * Return the number of free bytes
+     *
+     * @return free bytes
+     */
+    @Override
+    public synchronized long numFreeBytes() {
+        return freebytes;
+    }
+
+
+    /**
+     * Return the capacity
+     *
+     * @return capacity
+     */
+    @Override
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Print the free blocks by size, lowest address first
+     */
+    @Override
+    public synchronized void print() {
+        System.out.println("Freeblock List:");
+
+        if (freebytes <= 0) {
+            System.out.println("There are no freeblocks in the memory pool");
+            return;
+        }
+
+        String out;
+        for (int k = minOrder; k <= n; k++) {
+            if ((tree[1] & (1 << k)) == 0) {
+                continue;
+            }
+
+            out = String.format("%d: ", 1 << k);
+            System.out.print(out);
+            printBlocks(1, n, k);
+            System.out.println();
+        }
+    }
+
+
+    /**
+     * Print the free blocks of one order under a node
+     *
+     * @param node
+     *            The node to search
+     * @param order
+     *            The order of the node's block
+     * @param k
+     *            The order to print
+     */
+    private void printBlocks(int node, int order, int k) {
+        if ((tree[node] & (1 << k)) == 0) {
+            return;
+        }
+
+        if (order == k) {
+            int position = (node - (1 << (n - k))) << k;
+            String out = String.format("%d ", position);
+            System.out.print(out);
+            return;
+        }
+
+        printBlocks(node * 2, order - 1, k);
+        printBlocks(node * 2 + 1, order - 1, k);
+    }
+
+
+    /**
+     * Return the order of the block for a record
+     *
+     * @param size
+     *            The record length
+     * @return the order, at least the leaf order
+     */
+    private int orderOf(int size) {
+        return Math.max(minOrder, 32 - Integer.numberOfLeadingZeros(size
+            - 1));
+    }
+
+}
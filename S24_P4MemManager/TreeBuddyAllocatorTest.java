@@ -0,0 +1,193 @@
+import java.util.Random;
+import student.TestCase;
+
+/**
+ * Test the methods of the TreeBuddyAllocator class.
+ *
+ * @author Richard Martinez
+ *
+ * @version 2024-05-01
+ */
+public class TreeBuddyAllocatorTest extends TestCase {
+
+    private TreeBuddyAllocator memory;
+
+    /**
+     * Set up the test object
+     */
+    public void setUp() {
+        memory = new TreeBuddyAllocator(128);
+    }
+
+
+    /**
+     * Test a pool too large for int addresses is refused
+     */
+    public void testTooLarge() {
+        Exception thrown = null;
+        try {
+            new TreeBuddyAllocator(new LazyPool(1L << 31, false));
+        }
+        catch (IllegalArgumentException e) {
+            thrown = e;
+        }
+        assertNotNull(thrown);
+    }
+
+
+    /**
+     * Test splitting at a non-zero position
+     */
+    public void testSplitAtPositionNonZero() {
+        Handle handle = memory.insert(new byte[64], 64);
+        assertEquals(handle.getAddress(), 0);
+
+        handle = memory.insert(new byte[16], 16);
+        assertEquals(handle.getAddress(), 64);
+        assertEquals(memory.numFreeBytes(), 48);
+
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "16: 80\n" + "32: 96\n");
+    }
+
+
+    /**
+     * Test the smallest order that fits is used before a larger one
+     */
+    public void testSmallestOrderFirst() {
+        Handle handle1 = memory.insert(new byte[32], 32);
+        Handle handle2 = memory.insert(new byte[32], 32);
+        memory.insert(new byte[32], 32);
+        memory.remove(handle1);
+        memory.remove(handle2);
+
+        // 64 at 0 and 32 at 96 are free, the 32 is taken
+        Handle handle = memory.insert(new byte[20], 20);
+        assertEquals(handle.getAddress(), 96);
+    }
+
+
+    /**
+     * Test freeing merges buddies back into the whole pool
+     */
+    public void testRemoveMerges() {
+        byte[] space = { 1, 2, 3 };
+        Handle handle1 = memory.insert(space, 3);
+        Handle handle2 = memory.insert(new byte[40], 40);
+
+        // Records under 16 bytes take a 16 byte block
+        assertEquals(handle2.getAddress(), 64);
+        byte[] result = new byte[3];
+        assertTrue(memory.get(result, handle1, 3));
+        assertEquals(result[2], 3);
+        assertFalse(memory.get(result, handle2, 3));
+        assertEquals(memory.view(handle1).get(1), 2);
+
+        memory.remove(handle1);
+        memory.remove(handle2);
+        assertEquals(memory.numFreeBytes(), 128);
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "128: 0\n");
+    }
+
+
+    /**
+     * Test the pool doubles and the old tree moves under the new root
+     */
+    public void testResize() {
+        memory.insert(new byte[100], 100);
+
+        systemOut().clearHistory();
+        Handle handle = memory.insert(new byte[20], 20);
+        assertFuzzyEquals(systemOut().getHistory(),
+            "Memory pool expanded to 256 bytes\n");
+        assertEquals(handle.getAddress(), 128);
+        assertEquals(memory.getCapacity(), 256);
+
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "32: 160\n" + "64: 192\n");
+
+        memory.remove(handle);
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "128: 128\n");
+    }
+
+
+    /**
+     * Test a full pool prints no free blocks
+     */
+    public void testFull() {
+        memory.insert(new byte[128], 128);
+        assertEquals(memory.numFreeBytes(), 0);
+
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(), "Freeblock List:\n"
+            + "There are no freeblocks in the memory pool\n");
+    }
+
+
+    /**
+     * Test the same addresses and free blocks as MemoryManager
+     */
+    public void testSameAsMemoryManager() {
+        MemoryManager lists = new MemoryManager(64);
+        memory = new TreeBuddyAllocator(64);
+        Random random = new Random(11);
+        Handle[] live = new Handle[40];
+        Handle[] expected = new Handle[40];
+        byte[] space = new byte[500];
+
+        for (int i = 0; i < 3000; i++) {
+            int slot = random.nextInt(live.length);
+            if (live[slot] != null) {
+                memory.remove(live[slot]);
+                lists.remove(expected[slot]);
+                live[slot] = null;
+            }
+            else {
+                int size = 16 + random.nextInt(484);
+                live[slot] = memory.insert(space, size);
+                expected[slot] = lists.insert(space, size);
+                assertEquals(live[slot].getAddress(), expected[slot]
+                    .getAddress());
+            }
+        }
+
+        assertEquals(memory.numFreeBytes(), lists.numFreeBytes());
+        assertEquals(memory.getCapacity(), lists.getCapacity());
+
+        systemOut().clearHistory();
+        lists.print();
+        String listOutput = systemOut().getHistory();
+        systemOut().clearHistory();
+        memory.print();
+        assertEquals(systemOut().getHistory(), listOutput);
+    }
+
+
+    /**
+     * Test freeing every record at once
+     */
+    public void testClear() {
+        memory.insert(new byte[100], 100);
+        memory.insert(new byte[20], 20);
+        assertEquals(memory.getCapacity(), 256L);
+
+        memory.clear();
+        assertEquals(memory.numFreeBytes(), 256L);
+
+        systemOut().clearHistory();
+        memory.print();
+        assertFuzzyEquals(systemOut().getHistory(),
+            "Freeblock List:\n256: 0\n");
+    }
+}